@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics.benchmark;
+
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.rvandoosselaer.jmeesphysics.BroadphaseStatistics;
+import com.rvandoosselaer.jmeesphysics.BulletSystem;
+import com.rvandoosselaer.jmeesphysics.DefaultPhysicalShapeRegistry;
+import com.rvandoosselaer.jmeesphysics.ParametricShapes;
+import com.rvandoosselaer.jmeesphysics.PhysicalShapeRegistry;
+import com.rvandoosselaer.jmeesphysics.SessionRecorder;
+import com.rvandoosselaer.jmeesphysics.SessionReplay;
+import com.rvandoosselaer.jmeesphysics.es.Mass;
+import com.rvandoosselaer.jmeesphysics.es.WarpPosition;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.base.DefaultEntityData;
+import com.simsilica.sim.GameSystemManager;
+import com.simsilica.sim.SimTime;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Compares the DBVT, AXIS_SWEEP_3 and SIMPLE broadphases by replaying a session log recorded with a
+ * {@link SessionRecorder} through a BulletSystem with each broadphase. Without a log, a scene of static boxes and
+ * falling boxes and spheres is recorded first.
+ * <p>
+ * Arguments: [session log] or [bodies] [ticks]
+ */
+@Slf4j
+public class BroadphaseBenchmark {
+
+    private static final float TPF = 1 / 60f;
+    private static final float WORLD_SIZE = 500f;
+
+    public static void main(String[] args) throws IOException {
+        Path file;
+        if (args.length > 0 && !args[0].matches("\\d+")) {
+            file = Paths.get(args[0]);
+        } else {
+            int bodies = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+            int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+            file = Files.createTempFile("broadphase-benchmark", ".log");
+            file.toFile().deleteOnExit();
+            log.info("Recording a scene of {} bodies for {} ticks", bodies, ticks);
+            record(file, bodies, ticks);
+        }
+
+        PhysicsSpace.BroadphaseType[] types = {PhysicsSpace.BroadphaseType.DBVT, PhysicsSpace.BroadphaseType.AXIS_SWEEP_3,
+                PhysicsSpace.BroadphaseType.SIMPLE};
+        for (PhysicsSpace.BroadphaseType type : types) {
+            // warm up with the first replay
+            replay(file, type);
+            replay(file, type);
+        }
+    }
+
+    private static void replay(Path file, PhysicsSpace.BroadphaseType type) throws IOException {
+        GameSystemManager systems = new GameSystemManager();
+        BulletSystem bulletSystem = createBulletSystem(systems, type);
+        bulletSystem.setBroadphaseStatisticsEnabled(true);
+        systems.initialize();
+        systems.start();
+
+        long[] durations = new SessionReplay(file).replay(bulletSystem);
+        BroadphaseStatistics statistics = bulletSystem.getBroadphaseStatistics();
+        log.info("{}: {} ticks, average {} ms, p99 {} ms, max {} ms, {} pairs, {} average churn, {} out of bounds", type,
+                durations.length, String.format("%.3f", average(durations) / 1000000.0),
+                String.format("%.3f", percentile(durations, 0.99) / 1000000.0),
+                String.format("%.3f", percentile(durations, 1) / 1000000.0), statistics.getPairs(),
+                String.format("%.1f", statistics.getAverageChurn()), statistics.getOutOfBounds());
+
+        systems.stop();
+        systems.terminate();
+    }
+
+    private static void record(Path file, int bodies, int ticks) throws IOException {
+        GameSystemManager systems = new GameSystemManager();
+        BulletSystem bulletSystem = createBulletSystem(systems, PhysicsSpace.BroadphaseType.DBVT);
+        EntityData entityData = systems.get(EntityData.class);
+        systems.initialize();
+        systems.start();
+
+        try (SessionRecorder recorder = new SessionRecorder(file)) {
+            bulletSystem.setSessionRecorder(recorder);
+
+            // a floor with static boxes and a rain of dynamic boxes and spheres
+            entityData.setComponents(entityData.createEntity(), new Mass(0), ParametricShapes.box(new Vector3f(WORLD_SIZE / 2, 0.5f, WORLD_SIZE / 2)),
+                    new WarpPosition(new Vector3f(0, -0.5f, 0), new Quaternion()));
+            int columns = (int) Math.ceil(Math.sqrt(bodies));
+            float spacing = WORLD_SIZE * 0.8f / columns;
+            for (int i = 0; i < bodies; i++) {
+                float x = (i % columns - columns / 2f) * spacing;
+                float z = (i / columns - columns / 2f) * spacing;
+                if (i % 4 == 0) {
+                    entityData.setComponents(entityData.createEntity(), new Mass(0), ParametricShapes.box(new Vector3f(1, 1, 1)),
+                            new WarpPosition(new Vector3f(x, 1, z), new Quaternion()));
+                } else {
+                    entityData.setComponents(entityData.createEntity(), new Mass(1),
+                            i % 2 == 0 ? ParametricShapes.box(new Vector3f(0.5f, 0.5f, 0.5f)) : ParametricShapes.sphere(0.5f),
+                            new WarpPosition(new Vector3f(x, 5 + i % 7 * 2, z), new Quaternion()));
+                }
+            }
+
+            SimTime time = new SimTime();
+            long simTime = 0;
+            time.update(simTime);
+            for (int tick = 0; tick < ticks; tick++) {
+                simTime += (long) (TPF * 1000000000L);
+                time.update(simTime);
+                bulletSystem.update(time);
+            }
+            bulletSystem.setSessionRecorder(null);
+        }
+
+        systems.stop();
+        systems.terminate();
+    }
+
+    private static BulletSystem createBulletSystem(GameSystemManager systems, PhysicsSpace.BroadphaseType type) {
+        systems.register(EntityData.class, new DefaultEntityData());
+        systems.register(PhysicalShapeRegistry.class, new DefaultPhysicalShapeRegistry());
+        BulletSystem bulletSystem = systems.register(BulletSystem.class, new BulletSystem());
+        bulletSystem.setBroadphaseType(type);
+        bulletSystem.setWorldMin(new Vector3f(-WORLD_SIZE, -WORLD_SIZE, -WORLD_SIZE));
+        bulletSystem.setWorldMax(new Vector3f(WORLD_SIZE, WORLD_SIZE, WORLD_SIZE));
+        return bulletSystem;
+    }
+
+    private static double average(long[] values) {
+        return Arrays.stream(values).average().orElse(0);
+    }
+
+    private static long percentile(long[] values, double percentile) {
+        if (values.length == 0) {
+            return 0;
+        }
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(percentile * sorted.length))];
+    }
+
+}
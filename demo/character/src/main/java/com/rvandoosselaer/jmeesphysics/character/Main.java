@@ -22,9 +22,12 @@ import com.jme3.scene.Spatial;
 import com.jme3.shadow.DirectionalLightShadowFilter;
 import com.jme3.shadow.EdgeFilteringMode;
 import com.rvandoosselaer.jmeesphysics.BulletSystem;
+import com.rvandoosselaer.jmeesphysics.CollisionShapeCache;
 import com.rvandoosselaer.jmeesphysics.CollisionShapeHelper;
 import com.rvandoosselaer.jmeesphysics.DefaultPhysicalShapeRegistry;
 import com.rvandoosselaer.jmeesphysics.PhysicalShapeRegistry;
+import com.rvandoosselaer.jmeesphysics.QuantizedPublisher;
+import com.rvandoosselaer.jmeesphysics.ScheduledPublisher;
 import com.rvandoosselaer.jmeesphysics.debug.BulletSystemDebugState;
 import com.rvandoosselaer.jmeesphysics.debug.PhysicalEntityDebugPublisher;
 import com.rvandoosselaer.jmeesphysics.es.Mass;
@@ -43,6 +46,8 @@ import com.simsilica.lemur.input.StateFunctionListener;
 import com.simsilica.lemur.style.BaseStyles;
 import com.simsilica.state.GameSystemsState;
 
+import java.nio.file.Paths;
+
 public class Main extends SimpleApplication implements StateFunctionListener, AnalogFunctionListener {
 
     public static final FunctionId FUNCTION_MOVE = new FunctionId("move");
@@ -52,7 +57,7 @@ public class Main extends SimpleApplication implements StateFunctionListener, An
     private GameSystemsState systems;
     private EntityData entityData;
     private BulletSystem bulletSystem;
-    private PhysicalShapeRegistry shapeRegistry;
+    private DefaultPhysicalShapeRegistry shapeRegistry;
     private AmbientLight ambientLight;
     private DirectionalLight directionalLight;
     private ModelRegistry modelRegistry;
@@ -115,7 +120,10 @@ public class Main extends SimpleApplication implements StateFunctionListener, An
 
         // register global objects and systems
         entityData = systems.register(EntityData.class, new DefaultEntityData());
-        shapeRegistry = systems.register(PhysicalShapeRegistry.class, new DefaultPhysicalShapeRegistry());
+        shapeRegistry = new DefaultPhysicalShapeRegistry();
+        // cache the collision shape of the level on disk, the mesh shape is only rebuilt when the level changes
+        shapeRegistry.setShapeCache(new CollisionShapeCache(Paths.get(System.getProperty("java.io.tmpdir"), "jme-es-physics", "shapes")));
+        systems.register(PhysicalShapeRegistry.class, shapeRegistry);
         modelRegistry = systems.register(ModelRegistry.class, new DefaultModelRegistry());
         bulletSystem = systems.register(BulletSystem.class, new BulletSystem());
         getStateManager().attach(new BulletSystemDebugState(entityData, shapeRegistry));
@@ -133,7 +141,7 @@ public class Main extends SimpleApplication implements StateFunctionListener, An
         level.setShadowMode(RenderQueue.ShadowMode.CastAndReceive);
         rootNode.attachChild(level);
 
-        shapeRegistry.register(new PhysicalShape("level"), CollisionShapeHelper.createMeshShape(level));
+        shapeRegistry.register(new PhysicalShape("level"), level, "mesh", CollisionShapeHelper::createMeshShape);
         entityData.setComponents(entityData.createEntity(), new Mass(0), new PhysicalShape("level"), new WarpPosition(level.getWorldTranslation(), level.getWorldRotation()));
 
         // load the player
@@ -151,8 +159,8 @@ public class Main extends SimpleApplication implements StateFunctionListener, An
         entityData.setComponents(entityData.createEntity(), new Model("monkey"), new Mass(80f), new PhysicalShape("player"), new WarpPosition(new Vector3f(5, 0.1f, 3), new Quaternion()));
 
         // add bullet listeners
-        bulletSystem.addPhysicalEntityListener(new PositionPublisher(entityData));
-        bulletSystem.addPhysicalEntityListener(new PhysicalEntityDebugPublisher(entityData));
+        bulletSystem.addPhysicalEntityListener(new ScheduledPublisher(new QuantizedPublisher(new PositionPublisher(entityData)), 500));
+        bulletSystem.addPhysicalEntityListener(new ScheduledPublisher(new PhysicalEntityDebugPublisher(entityData), 500));
     }
 
     protected void setupLights() {
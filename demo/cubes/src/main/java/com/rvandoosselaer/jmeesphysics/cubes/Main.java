@@ -32,9 +32,7 @@ package com.rvandoosselaer.jmeesphysics.cubes;
 import com.jme3.app.ChaseCameraAppState;
 import com.jme3.app.SimpleApplication;
 import com.jme3.app.StatsAppState;
-import com.jme3.bullet.collision.shapes.BoxCollisionShape;
 import com.jme3.bullet.collision.shapes.MeshCollisionShape;
-import com.jme3.bullet.collision.shapes.SphereCollisionShape;
 import com.jme3.light.AmbientLight;
 import com.jme3.light.DirectionalLight;
 import com.jme3.math.ColorRGBA;
@@ -54,7 +52,12 @@ import com.jme3.shadow.DirectionalLightShadowFilter;
 import com.jme3.shadow.EdgeFilteringMode;
 import com.rvandoosselaer.jmeesphysics.BulletSystem;
 import com.rvandoosselaer.jmeesphysics.DefaultPhysicalShapeRegistry;
+import com.rvandoosselaer.jmeesphysics.ParametricShapes;
 import com.rvandoosselaer.jmeesphysics.PhysicalShapeRegistry;
+import com.rvandoosselaer.jmeesphysics.QuantizedPublisher;
+import com.rvandoosselaer.jmeesphysics.ScheduledPublisher;
+import com.rvandoosselaer.jmeesphysics.TransformBuffer;
+import com.rvandoosselaer.jmeesphysics.TransformInterpolator;
 import com.rvandoosselaer.jmeesphysics.debug.BulletSystemDebugState;
 import com.rvandoosselaer.jmeesphysics.debug.PhysicalEntityDebugPublisher;
 import com.rvandoosselaer.jmeesphysics.es.Impulse;
@@ -127,14 +130,13 @@ public class Main extends SimpleApplication {
         shapeRegistry = systems.register(PhysicalShapeRegistry.class, new DefaultPhysicalShapeRegistry());
         modelRegistry = systems.register(ModelRegistry.class, new DefaultModelRegistry());
         bulletSystem = systems.register(BulletSystem.class, new BulletSystem());
+        TransformBuffer transformBuffer = new TransformBuffer();
+        bulletSystem.setTransformBuffer(transformBuffer);
         getStateManager().attach(new BulletSystemDebugState(entityData, shapeRegistry));
-        getStateManager().attach(new VisualState(entityData, modelRegistry));
+        getStateManager().attach(new VisualState(entityData, modelRegistry, new TransformInterpolator(transformBuffer)));
 
-        // register some physical shapes
+        // register some physical shapes, boxes and spheres use parametric shape ids and don't need to be registered
         shapeRegistry.register(new PhysicalShape("floor"), new MeshCollisionShape(new Quad(32f, 32f)));
-        shapeRegistry.register(new PhysicalShape("static-box"), new BoxCollisionShape(new Vector3f(1.0f, 1.0f, 1.0f)));
-        shapeRegistry.register(new PhysicalShape("cube"), new BoxCollisionShape(new Vector3f(0.5f, 0.5f, 0.5f)));
-        shapeRegistry.register(new PhysicalShape("ball"), new SphereCollisionShape(0.5f));
         // register some models
         Geometry staticBox = new Geometry("big-box", new Box(1.0f, 1.0f, 1.0f));
         staticBox.setMaterial(GuiGlobals.getInstance().createMaterial(ColorRGBA.Brown, true).getMaterial());
@@ -150,8 +152,8 @@ public class Main extends SimpleApplication {
         modelRegistry.register(new Model("sphere"), sphere);
 
         // add bullet listeners
-        bulletSystem.addPhysicalEntityListener(new PhysicalEntityDebugPublisher(entityData));
-        bulletSystem.addPhysicalEntityListener(new PositionPublisher(entityData));
+        bulletSystem.addPhysicalEntityListener(new ScheduledPublisher(new PhysicalEntityDebugPublisher(entityData), 500));
+        bulletSystem.addPhysicalEntityListener(new ScheduledPublisher(new QuantizedPublisher(new PositionPublisher(entityData)), 500));
 
         // create static floor
         Geometry floor = new Geometry("floor", new Quad(32, 32));
@@ -169,7 +171,7 @@ public class Main extends SimpleApplication {
                     new Model("static-box"),
                     new Mass(0),
                     new WarpPosition(new Vector3f(FastMath.nextRandomInt(-15, 15), 1, FastMath.nextRandomInt(-15, 15)), new Quaternion()),
-                    new PhysicalShape("static-box"));
+                    ParametricShapes.box(new Vector3f(1.0f, 1.0f, 1.0f)));
 
         });
     }
@@ -223,7 +225,7 @@ public class Main extends SimpleApplication {
         entityData.setComponents(entityData.createEntity(),
                 new Model("sphere"),
                 new Mass(5),
-                new PhysicalShape("ball"),
+                ParametricShapes.sphere(0.5f),
                 new WarpPosition(new Vector3f(cam.getLocation()), new Quaternion()),
                 new Impulse(dir.mult(10)));
     }
@@ -234,7 +236,7 @@ public class Main extends SimpleApplication {
         entityData.setComponents(entityData.createEntity(),
                 new Model("cube"),
                 new Mass(10),
-                new PhysicalShape("cube"),
+                ParametricShapes.box(new Vector3f(0.5f, 0.5f, 0.5f)),
                 new WarpPosition(new Vector3f(cam.getLocation()), new Quaternion()),
                 new Impulse(dir.mult(10)));
     }
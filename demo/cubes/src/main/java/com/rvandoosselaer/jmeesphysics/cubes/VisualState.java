@@ -32,10 +32,14 @@ package com.rvandoosselaer.jmeesphysics.cubes;
 import com.jme3.app.Application;
 import com.jme3.app.SimpleApplication;
 import com.jme3.app.state.BaseAppState;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
 import com.jme3.scene.Spatial;
+import com.rvandoosselaer.jmeesphysics.TransformInterpolator;
 import com.simsilica.es.Entity;
 import com.simsilica.es.EntityContainer;
 import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
 import lombok.RequiredArgsConstructor;
 
 @RequiredArgsConstructor
@@ -43,8 +47,11 @@ public class VisualState extends BaseAppState {
 
     private final EntityData entityData;
     private final ModelRegistry modelRegistry;
+    private final TransformInterpolator interpolator;
 
     private ModelContainer models;
+    private final Vector3f location = new Vector3f();
+    private final Quaternion rotation = new Quaternion();
 
     @Override
     protected void initialize(Application app) {
@@ -60,16 +67,31 @@ public class VisualState extends BaseAppState {
     @Override
     public void update(float tpf) {
         models.update();
+
+        // blend the physics transforms of the last two physics steps
+        interpolator.update();
+        for (Visual visual : models.getArray()) {
+            if (interpolator.getLocation(visual.entityId, location) && interpolator.getRotation(visual.entityId, rotation)) {
+                visual.spatial.setLocalTranslation(location);
+                visual.spatial.setLocalRotation(rotation);
+            }
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class Visual {
+        private final EntityId entityId;
+        private final Spatial spatial;
     }
 
-    private class ModelContainer extends EntityContainer<Spatial> {
+    private class ModelContainer extends EntityContainer<Visual> {
 
         public ModelContainer(EntityData ed) {
             super(ed, Model.class, Position.class);
         }
 
         @Override
-        protected Spatial addObject(Entity e) {
+        protected Visual addObject(Entity e) {
             Model model = e.get(Model.class);
             Position position = e.get(Position.class);
 
@@ -78,20 +100,20 @@ public class VisualState extends BaseAppState {
             spatial.setLocalRotation(position.getRotation());
             ((SimpleApplication) getApplication()).getRootNode().attachChild(spatial);
 
-            return spatial;
+            return new Visual(e.getId(), spatial);
         }
 
         @Override
-        protected void updateObject(Spatial object, Entity e) {
+        protected void updateObject(Visual object, Entity e) {
             Position position = e.get(Position.class);
 
-            object.setLocalTranslation(position.getLocation());
-            object.setLocalRotation(position.getRotation());
+            object.spatial.setLocalTranslation(position.getLocation());
+            object.spatial.setLocalRotation(position.getRotation());
         }
 
         @Override
-        protected void removeObject(Spatial object, Entity e) {
-            object.removeFromParent();
+        protected void removeObject(Visual object, Entity e) {
+            object.spatial.removeFromParent();
         }
 
     }
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.bullet.PhysicsSpace;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Arrays;
+
+/**
+ * The broadphase statistics of the last physics tick of a {@link BulletSystem}.
+ * <p>
+ * Bullet doesn't expose the overlapping pair cache of the broadphase, so the pairs are the contact manifolds of the
+ * dispatcher. The dispatcher creates a manifold for each overlapping pair of which the collision is calculated, and
+ * removes it when the pair stops overlapping. The churn is the number of manifolds that are added and removed.
+ */
+@Getter
+@ToString
+public class BroadphaseStatistics {
+
+    private PhysicsSpace.BroadphaseType broadphaseType;
+    /**
+     * The number of collision objects in the broadphase.
+     */
+    private int proxies;
+    /**
+     * The number of overlapping pairs.
+     */
+    private int pairs;
+    /**
+     * The number of pairs that are added in the last tick.
+     */
+    private int addedPairs;
+    /**
+     * The number of pairs that are removed in the last tick.
+     */
+    private int removedPairs;
+    /**
+     * The number of bodies outside the world bounds of the broadphase.
+     */
+    private int outOfBounds;
+    /**
+     * The number of ticks the statistics are collected.
+     */
+    private long ticks;
+    /**
+     * The total number of added and removed pairs.
+     */
+    private long totalChurn;
+    @Getter(AccessLevel.NONE)
+    @ToString.Exclude
+    private long[] manifoldIds = new long[0];
+
+    /**
+     * Returns the average number of added and removed pairs per tick.
+     *
+     * @return the average churn
+     */
+    public float getAverageChurn() {
+        return ticks > 0 ? (float) totalChurn / ticks : 0;
+    }
+
+    void update(PhysicsSpace physicsSpace, int outOfBounds) {
+        broadphaseType = physicsSpace.getBroadphaseType();
+        proxies = physicsSpace.countCollisionObjects();
+        this.outOfBounds = outOfBounds;
+
+        long[] ids = physicsSpace.listManifoldIds();
+        Arrays.sort(ids);
+        pairs = ids.length;
+        // count the ids that are only in the current or only in the previous tick
+        int added = 0;
+        int removed = 0;
+        int i = 0;
+        int j = 0;
+        while (i < ids.length && j < manifoldIds.length) {
+            if (ids[i] == manifoldIds[j]) {
+                i++;
+                j++;
+            } else if (ids[i] < manifoldIds[j]) {
+                added++;
+                i++;
+            } else {
+                removed++;
+                j++;
+            }
+        }
+        addedPairs = added + ids.length - i;
+        removedPairs = removed + manifoldIds.length - j;
+        manifoldIds = ids;
+
+        ticks++;
+        totalChurn += addedPairs + removedPairs;
+    }
+
+    void reset() {
+        broadphaseType = null;
+        proxies = 0;
+        pairs = 0;
+        addedPairs = 0;
+        removedPairs = 0;
+        outOfBounds = 0;
+        ticks = 0;
+        totalChurn = 0;
+        manifoldIds = new long[0];
+    }
+
+}
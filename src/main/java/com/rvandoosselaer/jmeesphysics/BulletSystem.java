@@ -30,6 +30,11 @@
 package com.rvandoosselaer.jmeesphysics;
 
 import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.SolverInfo;
+import com.jme3.bullet.collision.PhysicsCollisionObject;
+import com.jme3.bullet.collision.shapes.CollisionShape;
+import com.jme3.bullet.collision.shapes.CompoundCollisionShape;
+import com.jme3.math.Quaternion;
 import com.jme3.math.Vector3f;
 import com.jme3.util.SafeArrayList;
 import com.rvandoosselaer.jmeesphysics.es.Impulse;
@@ -43,13 +48,24 @@ import com.simsilica.es.EntityId;
 import com.simsilica.es.EntitySet;
 import com.simsilica.sim.AbstractGameSystem;
 import com.simsilica.sim.SimTime;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
@@ -60,6 +76,29 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * Other systems can register {@link PhysicalEntityListener} to be notified about changes of the entities.
  * A {@link PhysicalEntityDriver} can be registered on a physical entity using
  * {@link #setPhysicalEntityDriver(EntityId, PhysicalEntityDriver)}. Drivers can be used to steer physical entities.
+ * <p>
+ * When the collision shape of an entity isn't loaded yet, the body is added to the physics space as soon as the
+ * {@link PhysicalShapeRegistry} has loaded the shape. The physics tick is never blocked by loading a collision shape.
+ * <p>
+ * When a static merge cell size is set, static entities are merged in shared {@link StaticBodyGroup} bodies per grid
+ * cell and collision filter. Use {@link #getEntityId(PhysicsCollisionObject, int)} to resolve the entity of a contact
+ * or query result.
+ * <p>
+ * The state of all bodies can be captured in a {@link PhysicsState} and restored, or saved to and loaded from a
+ * snapshot file. Restoring a body restores its motion, which isn't possible using a {@link WarpPosition}.
+ * <p>
+ * When rollback is enabled, the state of the last ticks is kept in a ring buffer. The world can be rewound to one of
+ * these ticks and resimulated to the current tick using {@link #rewindAndResimulate(long)}, eg. after a
+ * {@link PhysicsCommand} of a past tick is added or corrected.
+ * <p>
+ * When an origin shift threshold and a primary observer are set, the origin of the physics space is moved to the
+ * primary observer when it's further from the origin than the threshold. All bodies are moved in one pass, so the
+ * coordinates in the physics space stay small in large worlds. The components, the physical entities and the
+ * captured states use world coordinates, the {@link PhysicsSpace} uses coordinates relative to the {@link WorldOrigin}.
+ * <p>
+ * The solver settings that aren't set keep the Bullet defaults. When a tick budget is set, the solver iterations and
+ * substeps are lowered when the physics step takes longer than the budget, and raised again to their configured values
+ * when there is headroom. Auto tuning trades accuracy for throughput, so it makes the simulation non-deterministic.
  */
 @Slf4j
 public class BulletSystem extends AbstractGameSystem {
@@ -80,6 +119,165 @@ public class BulletSystem extends AbstractGameSystem {
     @Getter
     @Setter
     private float speed = 1.0f;
+    /**
+     * When true, the broadphase type and world bounds are chosen at initialization based on the entities that exist
+     * at that moment. The DBVT broadphase is always used when origin shifting is enabled, the bounds of a sweep and
+     * prune broadphase don't move with the origin.
+     */
+    @Getter
+    @Setter
+    private boolean adaptiveBroadphase;
+    /**
+     * The minimum distance the world bounds of the adaptive broadphase extend beyond the initial entities.
+     */
+    @Getter
+    @Setter
+    private float adaptiveBoundsMargin = 100f;
+    /**
+     * When true, the broadphase statistics are updated each tick and bodies that leave the world bounds are reported.
+     */
+    @Getter
+    @Setter
+    private boolean broadphaseStatisticsEnabled;
+    @Getter
+    private final BroadphaseStatistics broadphaseStatistics = new BroadphaseStatistics();
+    /**
+     * The number of solver iterations, or null for the Bullet default.
+     */
+    @Getter
+    private Integer solverIterations;
+    /**
+     * True to use split impulse to resolve penetrations, or null for the Bullet default.
+     */
+    @Getter
+    private Boolean splitImpulse;
+    /**
+     * The error reduction parameter of split impulse, or null for the Bullet default.
+     */
+    @Getter
+    private Float splitImpulseErp;
+    /**
+     * The penetration depth at which split impulse is used, or null for the Bullet default.
+     */
+    @Getter
+    private Float splitImpulseThreshold;
+    /**
+     * The error reduction parameter of contacts, or null for the Bullet default.
+     */
+    @Getter
+    private Float contactErp;
+    /**
+     * The error reduction parameter of joints, or null for the Bullet default.
+     */
+    @Getter
+    private Float jointErp;
+    /**
+     * The constraint force mixing of all constraints, or null for the Bullet default.
+     */
+    @Getter
+    private Float globalCfm;
+    /**
+     * The number of substeps of a physics tick.
+     */
+    @Getter
+    private int substeps = 1;
+    /**
+     * The target time of a physics step in milliseconds, 0 disables the auto tuning of the solver.
+     */
+    @Getter
+    @Setter
+    private float tickBudget = 0;
+    /**
+     * The lowest number of solver iterations the auto tuning uses.
+     */
+    @Getter
+    @Setter
+    private int minSolverIterations = 4;
+    /**
+     * The number of ticks between two adjustments of the auto tuning.
+     */
+    @Getter
+    @Setter
+    private int tuningInterval = 30;
+    // the solver iterations and substeps used by the auto tuning
+    @Getter
+    private int effectiveSolverIterations;
+    @Getter
+    private int effectiveSubsteps = 1;
+    // the solver settings of a new physics space, used for the settings that aren't set
+    private int defaultSolverIterations;
+    private boolean defaultSplitImpulse;
+    private float defaultSplitImpulseErp;
+    private float defaultSplitImpulseThreshold;
+    private float defaultContactErp;
+    private float defaultJointErp;
+    private float defaultGlobalCfm;
+    private double averageStepNanos;
+    private int ticksSinceTuning;
+    // the bodies that are outside the world bounds
+    private final Set<EntityId> outOfBounds = new HashSet<>();
+    /**
+     * The size of the grid cells used to merge static entities in shared compound bodies. A value of 0 disables the
+     * merging of static entities.
+     */
+    @Getter
+    @Setter
+    private float staticMergeCellSize = 0;
+    /**
+     * The number of physics steps since the system is started.
+     */
+    @Getter
+    private long tick;
+    /**
+     * The pool of the buffers used to encode snapshots.
+     */
+    @Getter
+    @Setter
+    private ByteBufferPool bufferPool = new ByteBufferPool();
+    /**
+     * The number of ticks that can be rewound, 0 when rollback is disabled.
+     */
+    @Getter
+    private int rollbackTicks;
+    private RollbackBuffer rollbackBuffer;
+    // true while past ticks are resimulated, contact callbacks and collision events are suppressed
+    private boolean resimulating;
+    // the bodies that aren't part of the rewound state, they are kept out of the physics space while resimulating
+    private final Set<EntityId> excludedBodies = new HashSet<>();
+    // the time of the last frame, used to notify the listeners about a resimulated state
+    private SimTime lastTime;
+    /**
+     * The recorder of the input of the system, or null when the input isn't recorded.
+     */
+    @Getter
+    private SessionRecorder sessionRecorder;
+    /**
+     * The off-heap buffer the transforms of the bodies are written to each tick, or null when the transforms aren't
+     * written to a buffer.
+     */
+    @Getter
+    private TransformBuffer transformBuffer;
+    /**
+     * The world location of the origin of the physics space.
+     */
+    @Getter
+    private final WorldOrigin origin = new WorldOrigin();
+    /**
+     * The distance of the primary observer to the origin at which the origin is shifted, 0 disables origin shifting.
+     */
+    @Getter
+    @Setter
+    private float originShiftThreshold = 0;
+    /**
+     * The entity the origin of the physics space follows when origin shifting is enabled.
+     */
+    @Getter
+    @Setter
+    private EntityId primaryObserver;
+    private final Vector3f tmpLocation = new Vector3f();
+    private final Quaternion tmpRotation = new Quaternion();
+    private final Vector3f tmpLinearVelocity = new Vector3f();
+    private final Vector3f tmpAngularVelocity = new Vector3f();
     private boolean calculateTicks = true;
     private float timeCounter;
     private int frameCounter;
@@ -88,6 +286,17 @@ public class BulletSystem extends AbstractGameSystem {
     private SafeArrayList<PhysicalEntityListener> physicalEntityListeners = new SafeArrayList<>(PhysicalEntityListener.class);
     // the container of all the rigidbodies
     private RigidBodyContainer rigidBodyContainer;
+    // the rigidbodies that are waiting for their collision shape
+    private final Map<EntityId, PendingRigidBody> pendingBodies = new LinkedHashMap<>();
+    // the rigidbodies of which the collision shape couldn't be loaded, the shape is requested again on the next update
+    private final Set<EntityId> failedBodies = new HashSet<>();
+    // the shared compound bodies of the merged static entities
+    private final Map<StaticGroupKey, StaticBodyGroup> staticGroups = new HashMap<>();
+    // the static groups that should be rebuilt before the next physics step
+    private final Set<StaticBodyGroup> dirtyStaticGroups = new LinkedHashSet<>();
+    // the restored state of the bodies that don't exist yet
+    private final PhysicsState pendingRestoreState = new PhysicsState();
+    private final Map<EntityId, Integer> pendingRestores = new HashMap<>();
     // a queue for pending PhysicalEntityDriver setup
     private Queue<PhysicalEntityDriverSetup> pendingDriverSetup = new ConcurrentLinkedQueue<>();
     // the registry of collision shapes
@@ -125,7 +334,14 @@ public class BulletSystem extends AbstractGameSystem {
             }
         }
 
-        physicsSpace = new PhysicsSpace(worldMin, worldMax, broadphaseType);
+        if (adaptiveBroadphase) {
+            configureBroadphase();
+        }
+        physicsSpace = new ResimulatingPhysicsSpace(worldMin, worldMax, broadphaseType);
+        captureSolverDefaults();
+        applySolverSettings();
+        broadphaseStatistics.reset();
+        outOfBounds.clear();
         rigidBodyContainer = new RigidBodyContainer(entityData);
     }
 
@@ -137,12 +353,24 @@ public class BulletSystem extends AbstractGameSystem {
 
     @Override
     public void update(SimTime time) {
+        // calculate the speed of the physics simulation
+        update(time, (float) time.getTpf() * speed);
+    }
+
+    /**
+     * Run a frame of the system with the given time per frame of the physics simulation.
+     */
+    void update(SimTime time, float t) {
+        lastTime = time;
         // call the start of the physics tick
         startFrame(time);
 
         // update the entity container
         rigidBodyContainer.update();
 
+        // add the bodies of which the collision shape is loaded to the physics space
+        resolvePendingBodies();
+
         // run pending objects setup
         PhysicalEntityDriverSetup setup = pendingDriverSetup.poll();
         if (setup != null) {
@@ -153,6 +381,12 @@ public class BulletSystem extends AbstractGameSystem {
             }
         }
 
+        // rebuild the compound shapes of the changed static groups
+        rebuildStaticGroups();
+
+        // move the origin to the primary observer
+        shiftOrigin();
+
         // apply impulses
         impulses.applyChanges();
         if (!impulses.isEmpty()) {
@@ -161,25 +395,23 @@ public class BulletSystem extends AbstractGameSystem {
             applyImpulses(impulses);
         }
 
-        // calculate the speed of the physics simulation
-        float t = (float) time.getTpf() * speed;
         if (t != 0) {
 
-            // update the drivers of the physical entities
-            for (PhysicalEntity entity : rigidBodyContainer.getArray()) {
-                if (entity.getPhysicalEntityDriver() != null) {
-                    entity.getPhysicalEntityDriver().update(t);
-                }
+            if (sessionRecorder != null) {
+                recordTick(t);
+            }
+            step(t);
+            writeTransforms();
+            if (broadphaseStatisticsEnabled || adaptiveBroadphase) {
+                updateBroadphaseStatistics();
             }
-
-            // update the physics space and distribute collision events
-            // read: https://hub.jmonkeyengine.org/t/sim-eth-es-troubleshootings/41249/45?u=remy_vd
-            physicsSpace.update(t, 0);
-            physicsSpace.distributeEvents();
 
             // notify the listeners for all of the attached entities after the physics calculation
-            for (PhysicalEntity entity : rigidBodyContainer.getArray()) {
-                physicalObjectUpdated(entity);
+            physicsStepped(time);
+            for (RigidBodyEntity entity : rigidBodyContainer.getArray()) {
+                if (!entity.isPending()) {
+                    physicalObjectUpdated(entity);
+                }
             }
 
         }
@@ -192,6 +424,9 @@ public class BulletSystem extends AbstractGameSystem {
     public void stop() {
         impulses.release();
         rigidBodyContainer.stop();
+        rebuildStaticGroups();
+        pendingRestores.clear();
+        pendingRestoreState.clear();
     }
 
     @Override
@@ -215,6 +450,312 @@ public class BulletSystem extends AbstractGameSystem {
         physicalEntityListeners.remove(physicalEntityListener);
     }
 
+    /**
+     * Returns the rigidbody of the entity, or null when the BulletSystem doesn't manage a body for the entity. This
+     * method should only be called from the thread running the BulletSystem.
+     *
+     * @param entityId the id of the entity
+     * @return the rigidbody of the entity or null
+     */
+    public RigidBodyEntity getPhysicalEntity(EntityId entityId) {
+        return rigidBodyContainer.getObject(entityId);
+    }
+
+    /**
+     * Returns the entity of a collision object in the physics space, or null when the collision object isn't linked to
+     * an entity. The child index is used to resolve the entity of a {@link StaticBodyGroup}, use the index of the
+     * collision event or the part index of the query result.
+     *
+     * @param collisionObject the collision object
+     * @param childIndex      the index of the child shape
+     * @return the entity id or null
+     */
+    public EntityId getEntityId(PhysicsCollisionObject collisionObject, int childIndex) {
+        if (collisionObject instanceof StaticBodyGroup) {
+            return ((StaticBodyGroup) collisionObject).getEntityId(childIndex);
+        }
+        if (collisionObject instanceof PhysicalEntity) {
+            return ((PhysicalEntity<?>) collisionObject).getEntityId();
+        }
+        return null;
+    }
+
+    /**
+     * Capture the state of all bodies. This method should only be called from the thread running the BulletSystem.
+     *
+     * @return the state
+     */
+    public PhysicsState captureState() {
+        return captureState(new PhysicsState(Math.max(rigidBodyContainer.getArray().length, 1)));
+    }
+
+    /**
+     * Capture the state of all bodies in the given state. The previous content of the state is cleared. This method
+     * should only be called from the thread running the BulletSystem.
+     *
+     * @param state the state to store the bodies in
+     * @return the state
+     */
+    public PhysicsState captureState(PhysicsState state) {
+        state.clear();
+        state.setTick(tick);
+
+        for (RigidBodyEntity body : rigidBodyContainer.getArray()) {
+            if (excludedBodies.contains(body.getEntityId())) {
+                // the body isn't part of the resimulated ticks
+                continue;
+            }
+            String shapeId = body.getPhysicalShape() != null ? body.getPhysicalShape().getShapeId() : null;
+            PhysicalEntityDriver driver = body.getPhysicalEntityDriver();
+            byte[] driverState = driver != null ? driver.saveState() : null;
+            if (body.isPending()) {
+                // the body isn't simulated yet
+                PendingRigidBody pending = pendingBodies.get(body.getEntityId());
+                float mass = pending != null ? pending.getMass().getMass() : 0;
+                Quaternion rotation = body.getPhysicsRotation(tmpRotation);
+                state.add(body.getEntityId(), shapeId, mass, getWorldLocation(body), rotation, Vector3f.ZERO,
+                        Vector3f.ZERO, true, driverState);
+            } else {
+                Quaternion rotation = body.getPhysicsRotation(tmpRotation);
+                Vector3f linearVelocity = body.getLinearVelocity(tmpLinearVelocity);
+                Vector3f angularVelocity = body.getAngularVelocity(tmpAngularVelocity);
+                state.add(body.getEntityId(), shapeId, body.getMass(), getWorldLocation(body), rotation, linearVelocity,
+                        angularVelocity, body.isActive(), driverState);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Restore the state of the bodies. The transform, velocity, activation state and driver state of existing bodies
+     * are restored immediately. Entities without a body get their components from the state and are restored when
+     * their body is created. The recorded states of the rollback buffer are discarded. This method should only be
+     * called from the thread running the BulletSystem.
+     *
+     * @param state the state to restore
+     */
+    public void restoreState(PhysicsState state) {
+        restore(state, true);
+        if (rollbackBuffer != null) {
+            // the recorded ticks are no longer part of the history of the world
+            rollbackBuffer = new RollbackBuffer(rollbackTicks);
+        }
+    }
+
+    /**
+     * Restore the state of the bodies. When pending is false, only the existing bodies are restored.
+     */
+    private void restore(PhysicsState state, boolean pending) {
+        tick = state.getTick();
+        for (int i = 0; i < state.getSize(); i++) {
+            EntityId entityId = state.getEntityId(i);
+            RigidBodyEntity body = rigidBodyContainer.getObject(entityId);
+            if (body != null && !body.isPending()) {
+                restoreBody(body, state, i);
+                continue;
+            }
+            if (!pending) {
+                continue;
+            }
+
+            if (body == null && entityData.getComponent(entityId, PhysicalShape.class) == null) {
+                if (state.getShapeId(i) == null) {
+                    log.warn("Unable to restore {} without a physical shape", entityId);
+                    continue;
+                }
+                entityData.setComponents(entityId, new Mass(state.getMass(i)), new PhysicalShape(state.getShapeId(i)),
+                        new WarpPosition(state.getLocation(i, null), state.getRotation(i, null)));
+            }
+            // restore the body when it's added to the physics space
+            pendingRestores.put(entityId, pendingRestoreState.add(state, i));
+        }
+        if (pending) {
+            log.debug("Restored {} bodies of tick {}, {} bodies are pending", state.getSize(), state.getTick(), pendingRestores.size());
+        }
+    }
+
+    /**
+     * Save a snapshot of all bodies to a file. This method should only be called from the thread running the
+     * BulletSystem.
+     *
+     * @param file the snapshot file
+     * @throws IOException when the file can't be written
+     */
+    public void saveSnapshot(Path file) throws IOException {
+        captureState().write(file, bufferPool);
+    }
+
+    /**
+     * Restore all bodies from a snapshot file. This method should only be called from the thread running the
+     * BulletSystem.
+     *
+     * @param file the snapshot file
+     * @throws IOException when the file can't be read
+     * @see #restoreState(PhysicsState)
+     */
+    public void loadSnapshot(Path file) throws IOException {
+        restoreState(PhysicsState.read(file));
+    }
+
+    /**
+     * Set the number of ticks that can be rewound, or 0 to disable rollback. The recorded states and commands are
+     * discarded.
+     *
+     * @param rollbackTicks the number of ticks
+     */
+    public void setRollbackTicks(int rollbackTicks) {
+        if (rollbackTicks < 0) {
+            throw new IllegalArgumentException("Invalid number of rollback ticks " + rollbackTicks);
+        }
+        this.rollbackTicks = rollbackTicks;
+        this.rollbackBuffer = rollbackTicks > 0 ? new RollbackBuffer(rollbackTicks) : null;
+    }
+
+    /**
+     * Add a command that is executed at the start of the tick. Commands of past ticks are executed when the world is
+     * rewound to a tick before the command. This method should only be called from the thread running the
+     * BulletSystem.
+     *
+     * @param tick    the tick of the command
+     * @param command the command
+     */
+    public void addCommand(long tick, PhysicsCommand command) {
+        if (rollbackBuffer == null) {
+            throw new IllegalStateException("Rollback is not enabled on BulletSystem!");
+        }
+        if (tick < this.tick - rollbackTicks) {
+            throw new IllegalArgumentException("Tick " + tick + " is older than the rollback buffer, the current tick is " + this.tick);
+        }
+        rollbackBuffer.addCommand(tick, command);
+    }
+
+    /**
+     * Restore the state of the world at the start of the given tick and simulate the ticks up to the current tick
+     * again, executing the commands of each tick. Listeners are only notified about the resulting state, not about the
+     * resimulated ticks, in a separate frame. The contacts of the resimulated ticks are not reported to the collision
+     * and contact listeners of the physics space, they were already reported when the ticks were first simulated.
+     * Entities that were removed after the tick are not restored. Bodies that were added after the tick are removed
+     * from the physics space while resimulating: they don't move, their drivers aren't updated and other bodies don't
+     * collide with them. They are added back with their current transform and velocity. Merged static bodies stay
+     * part of their static group. This method should only be called from the thread running the BulletSystem.
+     *
+     * @param fromTick the tick to rewind to
+     */
+    public void rewindAndResimulate(long fromTick) {
+        if (rollbackBuffer == null) {
+            throw new IllegalStateException("Rollback is not enabled on BulletSystem!");
+        }
+        if (fromTick == tick) {
+            return;
+        }
+        PhysicsState state = fromTick < tick ? rollbackBuffer.getState(fromTick) : null;
+        if (state == null) {
+            throw new IllegalArgumentException("Tick " + fromTick + " is not in the rollback buffer, the current tick is " + tick);
+        }
+
+        long start = System.nanoTime();
+        long target = tick;
+        restore(state, false);
+        rebuildStaticGroups();
+        excludeBodies(state);
+        // the ticks are resimulated with the solver settings they were simulated with
+        int iterations = effectiveSolverIterations;
+        int steps = effectiveSubsteps;
+        resimulating = true;
+        try {
+            while (tick < target) {
+                setEffectiveSolverSettings(rollbackBuffer.getSolverIterations(tick), rollbackBuffer.getSubsteps(tick));
+                step(rollbackBuffer.getTpf(tick));
+            }
+        } finally {
+            resimulating = false;
+            setEffectiveSolverSettings(iterations, steps);
+            includeBodies();
+        }
+
+        writeTransforms();
+        // notify the listeners about the resimulated state
+        startFrame(lastTime);
+        physicsStepped(lastTime);
+        for (RigidBodyEntity entity : rigidBodyContainer.getArray()) {
+            if (!entity.isPending()) {
+                physicalObjectUpdated(entity);
+            }
+        }
+        endFrame(lastTime);
+        log.trace("Resimulated {} ticks in {}ms", target - fromTick, (System.nanoTime() - start) / 1000000f);
+    }
+
+    /**
+     * Returns the world location of the body in the temporary location.
+     */
+    private Vector3f getWorldLocation(RigidBodyEntity body) {
+        return origin.toWorld(body.getPhysicsLocation(tmpLocation), tmpLocation);
+    }
+
+    /**
+     * Remove the bodies that aren't part of the state from the physics space.
+     */
+    private void excludeBodies(PhysicsState state) {
+        Set<EntityId> restored = new HashSet<>();
+        for (int i = 0; i < state.getSize(); i++) {
+            restored.add(state.getEntityId(i));
+        }
+        for (RigidBodyEntity body : rigidBodyContainer.getArray()) {
+            if (!body.isPending() && body.getStaticGroup() == null && !restored.contains(body.getEntityId())) {
+                log.trace("Excluding {} from the resimulation", body);
+                physicsSpace.removeCollisionObject(body);
+                excludedBodies.add(body.getEntityId());
+            }
+        }
+    }
+
+    /**
+     * Add the excluded bodies back to the physics space.
+     */
+    private void includeBodies() {
+        for (EntityId entityId : excludedBodies) {
+            physicsSpace.addCollisionObject(rigidBodyContainer.getObject(entityId));
+        }
+        excludedBodies.clear();
+    }
+
+    /**
+     * Start recording the input of the system, or stop recording when the recorder is null. The bodies that are
+     * already in the physics space are recorded as added entities. This method should only be called from the thread
+     * running the BulletSystem.
+     *
+     * @param sessionRecorder the recorder or null
+     */
+    public void setSessionRecorder(SessionRecorder sessionRecorder) {
+        this.sessionRecorder = sessionRecorder;
+        if (sessionRecorder == null || rigidBodyContainer == null) {
+            return;
+        }
+
+        for (RigidBodyEntity body : rigidBodyContainer.getArray()) {
+            if (body.getPhysicalShape() == null) {
+                continue;
+            }
+            PendingRigidBody pending = pendingBodies.get(body.getEntityId());
+            float mass = pending != null ? pending.getMass().getMass() : body.getMass();
+            sessionRecorder.recordSpawn(body.getEntityId(), mass, body.getPhysicalShape().getShapeId(), body.getLocation(), body.getPhysicsRotation());
+        }
+    }
+
+    /**
+     * Write the transforms of the bodies to the buffer each tick, or stop writing the transforms when the buffer is
+     * null. This method should only be called from the thread running the BulletSystem.
+     *
+     * @param transformBuffer the buffer or null
+     */
+    public void setTransformBuffer(TransformBuffer transformBuffer) {
+        if (this.transformBuffer != null) {
+            this.transformBuffer.clear();
+        }
+        this.transformBuffer = transformBuffer;
+    }
+
     public void setPhysicalEntityDriver(EntityId entityId, PhysicalEntityDriver driver) {
         // add to the setup queue
         pendingDriverSetup.offer(new PhysicalEntityDriverSetup(entityId, driver));
@@ -228,6 +769,10 @@ public class BulletSystem extends AbstractGameSystem {
                 log.warn("No body found for {}", e.getId());
                 continue;
             }
+            if (body.isPending()) {
+                // the impulse is applied when the body is added to the physics space
+                continue;
+            }
 
             // apply the impulse
             Impulse impulse = e.get(Impulse.class);
@@ -238,17 +783,459 @@ public class BulletSystem extends AbstractGameSystem {
                 body.getPhysicalObject().setAngularVelocity(impulse.getAngularVelocity());
             }
 
+            if (sessionRecorder != null) {
+                sessionRecorder.recordImpulse(e.getId(), impulse);
+            }
+
             // remove the Impulse component
             entityData.removeComponent(e.getId(), Impulse.class);
         }
     }
 
+    private void resolvePendingBodies() {
+        if (pendingBodies.isEmpty()) {
+            return;
+        }
+
+        Iterator<PendingRigidBody> iterator = pendingBodies.values().iterator();
+        while (iterator.hasNext()) {
+            PendingRigidBody pending = iterator.next();
+            if (!pending.getCollisionShape().isDone()) {
+                continue;
+            }
+            iterator.remove();
+
+            CollisionShape collisionShape;
+            try {
+                collisionShape = pending.getCollisionShape().join();
+            } catch (CompletionException e) {
+                // the body stays out of the physics space until the shape is requested again
+                log.error("Unable to load the collision shape of {}", pending.getBody(), e.getCause());
+                failedBodies.add(pending.getBody().getEntityId());
+                continue;
+            }
+
+            pending.getBody().resolve(collisionShape, pending.getMass());
+            rigidBodyContainer.addToPhysicsSpace(pending.getBody());
+        }
+    }
+
+    private void recordTick(float tpf) {
+        for (RigidBodyEntity entity : rigidBodyContainer.getArray()) {
+            PhysicalEntityDriver driver = entity.getPhysicalEntityDriver();
+            byte[] state = !entity.isPending() && driver != null ? driver.saveState() : null;
+            if (state != null) {
+                sessionRecorder.recordDriverState(entity.getEntityId(), state);
+            }
+        }
+        sessionRecorder.recordTick(tpf, effectiveSolverIterations, effectiveSubsteps);
+    }
+
+    private void step(float tpf) {
+        if (rollbackBuffer != null) {
+            // store the state at the start of the tick and execute the commands of the tick
+            captureState(rollbackBuffer.record(tick, tpf, effectiveSolverIterations, effectiveSubsteps));
+            for (PhysicsCommand command : rollbackBuffer.getCommands(tick)) {
+                command.execute(this);
+            }
+        }
+
+        // update the drivers of the physical entities
+        for (RigidBodyEntity entity : rigidBodyContainer.getArray()) {
+            if (entity.isPending() || entity.getPhysicalEntityDriver() == null) {
+                continue;
+            }
+            if (excludedBodies.isEmpty() || !excludedBodies.contains(entity.getEntityId())) {
+                entity.getPhysicalEntityDriver().update(tpf);
+            }
+        }
+
+        // update the physics space and distribute collision events
+        // read: https://hub.jmonkeyengine.org/t/sim-eth-es-troubleshootings/41249/45?u=remy_vd
+        long start = System.nanoTime();
+        float substepTpf = tpf / effectiveSubsteps;
+        for (int i = 0; i < effectiveSubsteps; i++) {
+            physicsSpace.update(substepTpf, 0);
+        }
+        if (tickBudget > 0 && !resimulating) {
+            tuneSolver(System.nanoTime() - start);
+        }
+        if (!resimulating) {
+            physicsSpace.distributeEvents();
+        }
+        tick++;
+    }
+
+    /**
+     * Set the number of solver iterations, or null to use the Bullet default.
+     */
+    public void setSolverIterations(Integer solverIterations) {
+        this.solverIterations = solverIterations;
+        applySolverSettings();
+    }
+
+    /**
+     * Enable or disable split impulse, or null to use the Bullet default.
+     */
+    public void setSplitImpulse(Boolean splitImpulse) {
+        this.splitImpulse = splitImpulse;
+        applySolverSettings();
+    }
+
+    /**
+     * Set the error reduction parameter of split impulse, or null to use the Bullet default.
+     */
+    public void setSplitImpulseErp(Float splitImpulseErp) {
+        this.splitImpulseErp = splitImpulseErp;
+        applySolverSettings();
+    }
+
+    /**
+     * Set the penetration depth at which split impulse is used, or null to use the Bullet default.
+     */
+    public void setSplitImpulseThreshold(Float splitImpulseThreshold) {
+        this.splitImpulseThreshold = splitImpulseThreshold;
+        applySolverSettings();
+    }
+
+    /**
+     * Set the error reduction parameter of contacts, or null to use the Bullet default.
+     */
+    public void setContactErp(Float contactErp) {
+        this.contactErp = contactErp;
+        applySolverSettings();
+    }
+
+    /**
+     * Set the error reduction parameter of joints, or null to use the Bullet default.
+     */
+    public void setJointErp(Float jointErp) {
+        this.jointErp = jointErp;
+        applySolverSettings();
+    }
+
+    /**
+     * Set the constraint force mixing of all constraints, or null to use the Bullet default.
+     */
+    public void setGlobalCfm(Float globalCfm) {
+        this.globalCfm = globalCfm;
+        applySolverSettings();
+    }
+
+    /**
+     * Set the number of substeps of a physics tick. Each substep simulates an equal part of the tick.
+     */
+    public void setSubsteps(int substeps) {
+        if (substeps < 1) {
+            throw new IllegalArgumentException("Invalid number of substeps " + substeps);
+        }
+        this.substeps = substeps;
+        effectiveSubsteps = substeps;
+    }
+
+    /**
+     * Apply the solver settings to the physics space, the settings that aren't set use the Bullet default.
+     */
+    private void applySolverSettings() {
+        if (physicsSpace == null) {
+            return;
+        }
+        SolverInfo solverInfo = physicsSpace.getSolverInfo();
+        solverInfo.setNumIterations(getConfiguredSolverIterations());
+        solverInfo.setSplitImpulseEnabled(splitImpulse != null ? splitImpulse : defaultSplitImpulse);
+        solverInfo.setSplitImpulseErp(splitImpulseErp != null ? splitImpulseErp : defaultSplitImpulseErp);
+        solverInfo.setSplitImpulseThreshold(splitImpulseThreshold != null ? splitImpulseThreshold : defaultSplitImpulseThreshold);
+        solverInfo.setContactErp(contactErp != null ? contactErp : defaultContactErp);
+        solverInfo.setJointErp(jointErp != null ? jointErp : defaultJointErp);
+        solverInfo.setGlobalCfm(globalCfm != null ? globalCfm : defaultGlobalCfm);
+        effectiveSolverIterations = getConfiguredSolverIterations();
+        effectiveSubsteps = substeps;
+        averageStepNanos = 0;
+        ticksSinceTuning = 0;
+    }
+
+    /**
+     * Store the Bullet defaults of the solver settings, they are used for the settings that aren't set.
+     */
+    private void captureSolverDefaults() {
+        SolverInfo solverInfo = physicsSpace.getSolverInfo();
+        defaultSolverIterations = solverInfo.numIterations();
+        defaultSplitImpulse = solverInfo.isSplitImpulseEnabled();
+        defaultSplitImpulseErp = solverInfo.splitImpulseErp();
+        defaultSplitImpulseThreshold = solverInfo.splitImpulseThreshold();
+        defaultContactErp = solverInfo.contactErp();
+        defaultJointErp = solverInfo.jointErp();
+        defaultGlobalCfm = solverInfo.globalCfm();
+    }
+
+    private int getConfiguredSolverIterations() {
+        return solverIterations != null ? solverIterations : defaultSolverIterations;
+    }
+
+    /**
+     * Use the given solver iterations and substeps for the next ticks, eg. the settings a tick was recorded with. This
+     * method should only be called from the thread running the BulletSystem.
+     */
+    void setEffectiveSolverSettings(int iterations, int substeps) {
+        if (iterations != effectiveSolverIterations) {
+            physicsSpace.getSolverInfo().setNumIterations(iterations);
+            effectiveSolverIterations = iterations;
+        }
+        effectiveSubsteps = substeps;
+    }
+
+    /**
+     * Lower the solver iterations and then the substeps when the average step time is over the tick budget, raise the
+     * substeps and then the iterations to their configured values when the step time is well below the budget.
+     */
+    private void tuneSolver(long stepNanos) {
+        averageStepNanos = averageStepNanos == 0 ? stepNanos : averageStepNanos * 0.9 + stepNanos * 0.1;
+        if (++ticksSinceTuning < tuningInterval) {
+            return;
+        }
+
+        double budgetNanos = tickBudget * 1000000.0;
+        int iterations = effectiveSolverIterations;
+        int steps = effectiveSubsteps;
+        if (averageStepNanos > budgetNanos) {
+            if (iterations > minSolverIterations) {
+                iterations = Math.max(minSolverIterations, iterations * 3 / 4);
+            } else if (steps > 1) {
+                steps--;
+            }
+        } else if (averageStepNanos < budgetNanos * 0.6) {
+            if (steps < substeps) {
+                steps++;
+            } else if (iterations < getConfiguredSolverIterations()) {
+                iterations = iterations + 1;
+            }
+        }
+
+        if (iterations != effectiveSolverIterations || steps != effectiveSubsteps) {
+            log.debug("Step time {}ms with a budget of {}ms, using {} solver iterations and {} substeps",
+                    averageStepNanos / 1000000.0, tickBudget, iterations, steps);
+            physicsSpace.getSolverInfo().setNumIterations(iterations);
+            effectiveSolverIterations = iterations;
+            effectiveSubsteps = steps;
+            // measure the new settings
+            averageStepNanos = 0;
+        }
+        ticksSinceTuning = 0;
+    }
+
+    private void writeTransforms() {
+        if (transformBuffer == null) {
+            return;
+        }
+        transformBuffer.begin();
+        for (RigidBodyEntity entity : rigidBodyContainer.getArray()) {
+            if (!entity.isPending()) {
+                transformBuffer.write(entity.getEntityId(), origin.toWorld(entity.getPhysicsLocation(tmpLocation), tmpLocation), entity.getPhysicsRotation(tmpRotation));
+            }
+        }
+        transformBuffer.publish();
+    }
+
+    private void restoreBody(RigidBodyEntity body, PhysicsState state, int index) {
+        Vector3f location = origin.toLocal(state.getLocation(index, null), new Vector3f());
+        Quaternion rotation = state.getRotation(index, null);
+        // static bodies rarely move, only rebuild the static group when the body is moved
+        boolean merged = body.getStaticGroup() != null;
+        if (!merged || !location.equals(body.getPhysicsLocation()) || !rotation.equals(body.getPhysicsRotation())) {
+            if (merged) {
+                unmerge(body);
+            }
+            body.setPhysicsLocation(location);
+            body.setPhysicsRotation(rotation);
+            if (merged) {
+                merge(body);
+            }
+        }
+
+        if (body.getMass() > 0) {
+            body.setLinearVelocity(state.getLinearVelocity(index, null));
+            body.setAngularVelocity(state.getAngularVelocity(index, null));
+            if (state.isActive(index)) {
+                body.activate();
+            }
+        }
+
+        byte[] driverState = state.getDriverState(index);
+        if (driverState != null && body.getPhysicalEntityDriver() != null) {
+            body.getPhysicalEntityDriver().restoreState(driverState);
+        }
+    }
+
+    private boolean isMergeable(RigidBodyEntity body) {
+        // compound shapes can't be a child of a compound shape
+        return staticMergeCellSize > 0 && body.getMass() == 0 && !(body.getCollisionShape() instanceof CompoundCollisionShape);
+    }
+
+    private void merge(RigidBodyEntity body) {
+        // the cells are in world coordinates, so they don't change when the origin is shifted
+        Vector3f location = body.getPhysicsLocation();
+        int x = (int) Math.floor((location.x + origin.getX()) / staticMergeCellSize);
+        int z = (int) Math.floor((location.z + origin.getZ()) / staticMergeCellSize);
+        StaticGroupKey key = new StaticGroupKey(x, z, body.getCollisionGroup(), body.getCollideWithGroups());
+        StaticBodyGroup group = staticGroups.computeIfAbsent(key, k -> {
+            Vector3f center = new Vector3f((float) ((x + 0.5) * staticMergeCellSize - origin.getX()), (float) -origin.getY(),
+                    (float) ((z + 0.5) * staticMergeCellSize - origin.getZ()));
+            return new StaticBodyGroup(x, z, center, k.collisionGroup, k.collideWithGroups);
+        });
+
+        log.trace("Merging {} in {}", body, group);
+        group.add(body);
+        body.setStaticGroup(group);
+        dirtyStaticGroups.add(group);
+    }
+
+    /**
+     * Choose the broadphase type and the world bounds based on the initial entities. A sweep and prune broadphase is
+     * used for mostly static worlds, the dynamic AABB tree when most bodies move or the world is unknown.
+     */
+    private void configureBroadphase() {
+        Vector3f min = new Vector3f(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+        Vector3f max = new Vector3f(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+        int count = 0;
+        int dynamic = 0;
+        EntitySet entities = entityData.getEntities(PhysicalShape.class, Mass.class, WarpPosition.class);
+        try {
+            for (Entity entity : entities) {
+                Vector3f location = entity.get(WarpPosition.class).getLocation();
+                min.minLocal(location);
+                max.maxLocal(location);
+                count++;
+                if (entity.get(Mass.class).getMass() > 0) {
+                    dynamic++;
+                }
+            }
+        } finally {
+            entities.release();
+        }
+
+        if (count == 0) {
+            broadphaseType = PhysicsSpace.BroadphaseType.DBVT;
+            log.info("Using broadphase {}, there are no initial entities", broadphaseType);
+            return;
+        }
+        if (originShiftThreshold > 0) {
+            // after a shift the bodies are outside the bounds computed from the initial entities
+            broadphaseType = PhysicsSpace.BroadphaseType.DBVT;
+            log.info("Using broadphase {}, origin shifting is enabled", broadphaseType);
+            return;
+        }
+
+        // the bounds of the shapes aren't known yet, leave room for the shapes and moving bodies
+        float margin = Math.max(adaptiveBoundsMargin, max.distance(min) * 0.25f);
+        worldMin = min.subtractLocal(margin, margin, margin);
+        worldMax = max.addLocal(margin, margin, margin);
+        if (dynamic * 2 > count) {
+            broadphaseType = PhysicsSpace.BroadphaseType.DBVT;
+        } else {
+            // the 16 bit sweep and prune broadphase supports up to 16384 proxies
+            broadphaseType = count < 16000 ? PhysicsSpace.BroadphaseType.AXIS_SWEEP_3 : PhysicsSpace.BroadphaseType.AXIS_SWEEP_3_32;
+        }
+        log.info("Using broadphase {} with bounds {} - {} for {} entities, {} dynamic", broadphaseType, worldMin, worldMax, count, dynamic);
+    }
+
+    private void updateBroadphaseStatistics() {
+        PhysicsSpace.BroadphaseType type = physicsSpace.getBroadphaseType();
+        if (type == PhysicsSpace.BroadphaseType.AXIS_SWEEP_3 || type == PhysicsSpace.BroadphaseType.AXIS_SWEEP_3_32) {
+            // bodies outside the bounds of a sweep and prune broadphase are clamped to the border and overlap each other
+            Vector3f min = physicsSpace.getWorldMin(null);
+            Vector3f max = physicsSpace.getWorldMax(null);
+            for (RigidBodyEntity body : rigidBodyContainer.getArray()) {
+                if (body.isPending() || body.getStaticGroup() != null) {
+                    continue;
+                }
+                Vector3f location = body.getPhysicsLocation(tmpLocation);
+                boolean inside = location.x >= min.x && location.y >= min.y && location.z >= min.z
+                        && location.x <= max.x && location.y <= max.y && location.z <= max.z;
+                if (!inside && outOfBounds.add(body.getEntityId())) {
+                    log.warn("{} at {} left the broadphase bounds {} - {}", body, location, min, max);
+                } else if (inside) {
+                    outOfBounds.remove(body.getEntityId());
+                }
+            }
+            outOfBounds.removeIf(entityId -> rigidBodyContainer.getObject(entityId) == null);
+        }
+        broadphaseStatistics.update(physicsSpace, outOfBounds.size());
+    }
+
+    private void shiftOrigin() {
+        if (originShiftThreshold <= 0 || primaryObserver == null) {
+            return;
+        }
+        RigidBodyEntity observer = rigidBodyContainer.getObject(primaryObserver);
+        if (observer == null || observer.isPending()) {
+            return;
+        }
+        Vector3f location = observer.getPhysicsLocation(tmpLocation);
+        if (location.lengthSquared() < originShiftThreshold * originShiftThreshold) {
+            return;
+        }
+
+        // shift in multiples of the threshold to keep the offsets exact
+        Vector3f offset = new Vector3f(Math.round(location.x / originShiftThreshold) * originShiftThreshold,
+                Math.round(location.y / originShiftThreshold) * originShiftThreshold,
+                Math.round(location.z / originShiftThreshold) * originShiftThreshold);
+        long start = System.nanoTime();
+        for (RigidBodyEntity body : rigidBodyContainer.getArray()) {
+            // merged bodies aren't in the physics space, their location is used when the group is rebuilt
+            body.setPhysicsLocation(body.getPhysicsLocation(tmpLocation).subtractLocal(offset));
+        }
+        for (StaticBodyGroup group : staticGroups.values()) {
+            group.setPhysicsLocation(group.getPhysicsLocation(tmpLocation).subtractLocal(offset));
+        }
+        origin.shift(offset);
+        log.debug("Shifted origin to {} in {}ms", origin, (System.nanoTime() - start) / 1000000f);
+    }
+
+    private void unmerge(RigidBodyEntity body) {
+        StaticBodyGroup group = body.getStaticGroup();
+        log.trace("Removing {} from {}", body, group);
+        group.remove(body);
+        body.setStaticGroup(null);
+        dirtyStaticGroups.add(group);
+    }
+
+    private void rebuildStaticGroups() {
+        if (dirtyStaticGroups.isEmpty()) {
+            return;
+        }
+
+        for (StaticBodyGroup group : dirtyStaticGroups) {
+            if (group.size() == 0) {
+                staticGroups.remove(new StaticGroupKey(group.getX(), group.getZ(), group.getCollisionGroup(), group.getCollideWithGroups()));
+                if (group.isInWorld()) {
+                    physicsSpace.removeCollisionObject(group);
+                }
+                continue;
+            }
+
+            log.trace("Rebuilding {} with {} entities", group, group.size());
+            if (group.isInWorld()) {
+                // the body is removed while the shape is swapped, so the broadphase proxy is refreshed
+                physicsSpace.removeCollisionObject(group);
+            }
+            group.rebuild();
+            physicsSpace.addCollisionObject(group);
+        }
+        dirtyStaticGroups.clear();
+    }
+
     private void startFrame(SimTime time) {
         for (PhysicalEntityListener listener : physicalEntityListeners.getArray()) {
             listener.startFrame(time);
         }
     }
 
+    private void physicsStepped(SimTime time) {
+        for (PhysicalEntityListener listener : physicalEntityListeners.getArray()) {
+            listener.physicsStepped(time);
+        }
+    }
+
     private void physicalObjectAdded(PhysicalEntity physicalEntity) {
         for (PhysicalEntityListener listener : physicalEntityListeners.getArray()) {
             listener.physicalEntityAdded(physicalEntity);
@@ -291,36 +1278,115 @@ public class BulletSystem extends AbstractGameSystem {
             PhysicalShape shape = e.get(PhysicalShape.class);
             WarpPosition position = e.get(WarpPosition.class);
 
-            RigidBodyEntity result = new RigidBodyEntity(e.getId(), shapeRegistry.get(shape), mass);
+            if (sessionRecorder != null) {
+                sessionRecorder.recordSpawn(e.getId(), mass.getMass(), shape.getShapeId(), position.getLocation(), position.getRotation());
+            }
+
+            // retain the shape before it's retrieved, so it can't be evicted while it's loading
+            shapeRegistry.retain(shape);
+            CompletableFuture<CollisionShape> collisionShape = shapeRegistry.getAsync(shape);
+            RigidBodyEntity result;
+            if (collisionShape.isDone() && !collisionShape.isCompletedExceptionally()) {
+                result = new RigidBodyEntity(e.getId(), shape, collisionShape.join(), mass);
+            } else {
+                // the collision shape is still loading, the body is added to the physics space when it's loaded
+                log.trace("Waiting for {} of {}", shape, e.getId());
+                result = new RigidBodyEntity(e.getId(), shape);
+                pendingBodies.put(e.getId(), new PendingRigidBody(result, mass, collisionShape));
+            }
 
-            result.setPhysicsLocation(position.getLocation());
+            result.setOrigin(origin);
+            result.setPhysicsLocation(origin.toLocal(position.getLocation(), new Vector3f()));
             result.setPhysicsRotation(position.getRotation());
 
-            log.trace("Adding {} to {}", result, physicsSpace);
-            physicsSpace.addCollisionObject(result);
-            // call the listener that an entity is added to the physics space
-            physicalObjectAdded(result);
+            if (!result.isPending()) {
+                addToPhysicsSpace(result);
+            }
 
             return result;
         }
 
+        private void addToPhysicsSpace(RigidBodyEntity object) {
+            if (isMergeable(object)) {
+                merge(object);
+            } else {
+                log.trace("Adding {} to {}", object, physicsSpace);
+                physicsSpace.addCollisionObject(object);
+            }
+            Integer restore = pendingRestores.remove(object.getEntityId());
+            if (restore != null) {
+                restoreBody(object, pendingRestoreState, restore);
+                if (pendingRestores.isEmpty()) {
+                    pendingRestoreState.clear();
+                }
+            }
+
+            // call the listener that an entity is added to the physics space
+            physicalObjectAdded(object);
+        }
+
         @Override
         protected void updateObject(RigidBodyEntity object, Entity e) {
             // we only update the position
             WarpPosition position = e.get(WarpPosition.class);
 
+            if (sessionRecorder != null) {
+                sessionRecorder.recordWarp(object.getEntityId(), position.getLocation(), position.getRotation());
+            }
+
             log.trace("Moving {} to {}", object, position);
-            object.setPhysicsLocation(position.getLocation());
+            object.setPhysicsLocation(origin.toLocal(position.getLocation(), new Vector3f()));
             object.setPhysicsRotation(position.getRotation());
 
+            if (object.isPending()) {
+                if (failedBodies.remove(object.getEntityId())) {
+                    // retry loading the collision shape
+                    PhysicalShape shape = object.getPhysicalShape();
+                    log.trace("Retrying {} of {}", shape, e.getId());
+                    CompletableFuture<CollisionShape> collisionShape = shapeRegistry.getAsync(shape);
+                    pendingBodies.put(e.getId(), new PendingRigidBody(object, e.get(Mass.class), collisionShape));
+                }
+                return;
+            }
+
+            if (object.getStaticGroup() != null) {
+                // the body can be moved to another group
+                unmerge(object);
+                merge(object);
+            }
+
             // call the listener that an entity is updated
             physicalObjectUpdated(object);
         }
 
         @Override
         protected void removeObject(RigidBodyEntity object, Entity e) {
-            log.trace("Removing {} from {}", object, physicsSpace);
-            physicsSpace.removeCollisionObject(object);
+            shapeRegistry.release(object.getPhysicalShape());
+            if (sessionRecorder != null) {
+                sessionRecorder.recordRemove(object.getEntityId());
+            }
+            if (transformBuffer != null) {
+                transformBuffer.remove(object.getEntityId());
+            }
+            if (pendingRestores.remove(object.getEntityId()) != null && pendingRestores.isEmpty()) {
+                pendingRestoreState.clear();
+            }
+
+            if (object.isPending()) {
+                // the body was never added to the physics space
+                log.trace("Removing pending {}", object);
+                pendingBodies.remove(object.getEntityId());
+                failedBodies.remove(object.getEntityId());
+                object.setPhysicalEntityDriver(null);
+                return;
+            }
+
+            if (object.getStaticGroup() != null) {
+                unmerge(object);
+            } else {
+                log.trace("Removing {} from {}", object, physicsSpace);
+                physicsSpace.removeCollisionObject(object);
+            }
             // make sure to clean up the driver if one was attached
             object.setPhysicalEntityDriver(null);
             // call the listener that an entity is remove from the physics space
@@ -328,6 +1394,55 @@ public class BulletSystem extends AbstractGameSystem {
         }
     }
 
+    // a rigidbody that is waiting for its collision shape
+    @Getter
+    @RequiredArgsConstructor
+    private static class PendingRigidBody {
+        private final RigidBodyEntity body;
+        private final Mass mass;
+        private final CompletableFuture<CollisionShape> collisionShape;
+    }
+
+    // the key of a static group: the grid cell and the collision filter
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static class StaticGroupKey {
+        private final int x;
+        private final int z;
+        private final int collisionGroup;
+        private final int collideWithGroups;
+    }
+
+    // a physics space that ignores the contact callbacks of the native world while resimulating, so no events are queued
+    private class ResimulatingPhysicsSpace extends PhysicsSpace {
+
+        public ResimulatingPhysicsSpace(Vector3f worldMin, Vector3f worldMax, BroadphaseType broadphaseType) {
+            super(worldMin, worldMax, broadphaseType);
+        }
+
+        @Override
+        public void onContactStarted(long manifoldId) {
+            if (!resimulating) {
+                super.onContactStarted(manifoldId);
+            }
+        }
+
+        @Override
+        public void onContactProcessed(PhysicsCollisionObject pcoA, PhysicsCollisionObject pcoB, long pointId) {
+            if (!resimulating) {
+                super.onContactProcessed(pcoA, pcoB, pointId);
+            }
+        }
+
+        @Override
+        public void onContactEnded(long manifoldId) {
+            if (!resimulating) {
+                super.onContactEnded(manifoldId);
+            }
+        }
+
+    }
+
     // helper class to setup a driver on an entity, when the setup fails more then 99 times, it's aborted.
     @RequiredArgsConstructor
     private class PhysicalEntityDriverSetup {
@@ -337,6 +1452,19 @@ public class BulletSystem extends AbstractGameSystem {
 
         public boolean execute() {
             RigidBodyEntity rigidBodyEntity = rigidBodyContainer.getObject(entityId);
+            if (rigidBodyEntity != null && failedBodies.contains(entityId)) {
+                log.error("Unable to setup {} on {}, the collision shape isn't loaded. Aborting!", driver, entityId);
+                return true;
+            }
+            if (rigidBodyEntity != null && rigidBodyEntity.isPending()) {
+                // wait until the collision shape of the body is loaded
+                return false;
+            }
+            if (rigidBodyEntity != null && rigidBodyEntity.getStaticGroup() != null) {
+                // a driven body can't be part of a shared static body
+                unmerge(rigidBodyEntity);
+                physicsSpace.addCollisionObject(rigidBodyEntity);
+            }
             if (rigidBodyEntity != null) {
                 log.trace("Added {} to {} after {} tries", driver, entityId, tries);
                 rigidBodyEntity.setPhysicalEntityDriver(driver);
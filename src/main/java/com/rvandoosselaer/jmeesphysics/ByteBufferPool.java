@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A thread safe pool of direct byte buffers. Buffers are pooled by their capacity, which is rounded up to a power of
+ * two. The total capacity of the pooled buffers is bounded, released buffers that don't fit in the pool are left to
+ * the garbage collector.
+ */
+public class ByteBufferPool {
+
+    private static final int MIN_CAPACITY = 1024;
+
+    @Getter
+    private final long maxPooledBytes;
+    // the pooled buffers, indexed by the power of two of their capacity
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<ByteBuffer>[] buffers = new ArrayDeque[32];
+    private long pooledBytes;
+
+    public ByteBufferPool() {
+        this(64 * 1024 * 1024);
+    }
+
+    public ByteBufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * Returns a cleared buffer with at least the requested capacity. The limit of the buffer is set to the requested
+     * capacity.
+     *
+     * @param capacity the minimum capacity
+     * @return a buffer
+     */
+    public ByteBuffer acquire(int capacity) {
+        if (capacity < 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid buffer capacity " + capacity);
+        }
+
+        int index = getIndex(capacity);
+        ByteBuffer buffer = null;
+        synchronized (this) {
+            if (buffers[index] != null) {
+                buffer = buffers[index].poll();
+            }
+            if (buffer != null) {
+                pooledBytes -= buffer.capacity();
+            }
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(1 << index);
+        }
+
+        buffer.clear();
+        buffer.limit(capacity);
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool. The buffer shouldn't be used after it's released.
+     *
+     * @param buffer the buffer
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || Integer.bitCount(capacity) != 1 || capacity < MIN_CAPACITY) {
+            // not a buffer of the pool
+            return;
+        }
+
+        int index = Integer.numberOfTrailingZeros(capacity);
+        synchronized (this) {
+            if (pooledBytes + capacity > maxPooledBytes) {
+                return;
+            }
+            if (buffers[index] == null) {
+                buffers[index] = new ArrayDeque<>();
+            }
+            buffers[index].push(buffer);
+            pooledBytes += capacity;
+        }
+    }
+
+    /**
+     * Returns the total capacity of the buffers in the pool.
+     *
+     * @return the pooled bytes
+     */
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    private static int getIndex(int capacity) {
+        int size = Math.max(capacity, MIN_CAPACITY);
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+}
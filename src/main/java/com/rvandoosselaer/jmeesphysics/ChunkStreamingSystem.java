@@ -0,0 +1,499 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.rvandoosselaer.jmeesphysics.es.Heightfield;
+import com.rvandoosselaer.jmeesphysics.es.Mass;
+import com.rvandoosselaer.jmeesphysics.es.Observer;
+import com.rvandoosselaer.jmeesphysics.es.PhysicalShape;
+import com.rvandoosselaer.jmeesphysics.es.WarpPosition;
+import com.simsilica.es.Entity;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.EntitySet;
+import com.simsilica.sim.AbstractGameSystem;
+import com.simsilica.sim.SimTime;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * A GameSystem implementation that streams static collision geometry in and out of the physics space around the
+ * {@link Observer} entities. Static geometry is registered with its world location and indexed by the chunk on the XZ
+ * plane that contains the location.
+ * <p>
+ * Chunks within the radius of an observer are loaded: the collision shapes are loaded by the
+ * {@link PhysicalShapeRegistry} (asynchronously when the registry has an executor), and when all shapes of the chunk
+ * are loaded, static entities are created that are picked up by the {@link BulletSystem} on the simulation thread.
+ * Chunks that are further away than the radius plus the unload margin of all observers are unloaded by removing their
+ * entities. The margin prevents chunks from loading and unloading continuously when an observer moves along a chunk
+ * border.
+ * <p>
+ * Entities with a {@link Heightfield} and a {@link WarpPosition} component are split in tiles that are streamed like
+ * other static geometry. The height data of the heightfield should be registered on the
+ * {@link HeightfieldShapeFactory}.
+ */
+@Slf4j
+public class ChunkStreamingSystem extends AbstractGameSystem {
+
+    @Getter
+    private EntityData entityData;
+    @Getter
+    private PhysicalShapeRegistry shapeRegistry;
+    @Getter
+    private BulletSystem bulletSystem;
+    @Getter
+    @Setter
+    private HeightfieldShapeFactory heightfieldShapeFactory;
+    @Getter
+    private final float chunkSize;
+    /**
+     * The extra distance an observer should move away from a chunk before it is unloaded.
+     */
+    @Getter
+    @Setter
+    private float unloadMargin;
+
+    // the static geometry by chunk
+    private final Map<Long, List<StaticElement>> elements = new HashMap<>();
+    // the chunks that are loading or loaded
+    private final Map<Long, Chunk> chunks = new HashMap<>();
+    // the location of each observer at the last evaluation
+    private final Map<EntityId, Vector3f> observerLocations = new HashMap<>();
+    // the tile ids of the heightfield entities
+    private final Map<EntityId, Set<String>> heightfieldTiles = new HashMap<>();
+    private EntitySet observers;
+    private EntitySet heightfields;
+    private boolean dirty = true;
+
+    public ChunkStreamingSystem(float chunkSize) {
+        this(null, null, chunkSize);
+    }
+
+    public ChunkStreamingSystem(EntityData entityData, PhysicalShapeRegistry shapeRegistry, float chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+        this.entityData = entityData;
+        this.shapeRegistry = shapeRegistry;
+        this.chunkSize = chunkSize;
+        this.unloadMargin = chunkSize * 0.25f;
+    }
+
+    @Override
+    protected void initialize() {
+        if (entityData == null) {
+            entityData = getSystem(EntityData.class);
+            if (entityData == null) {
+                throw new IllegalStateException("EntityData is not set when initializing ChunkStreamingSystem!");
+            }
+        }
+
+        if (shapeRegistry == null) {
+            shapeRegistry = getSystem(PhysicalShapeRegistry.class);
+            if (shapeRegistry == null) {
+                throw new IllegalStateException("PhysicalShapeRegistry is not set when initializing ChunkStreamingSystem!");
+            }
+        }
+
+        // the bullet system is optional, it's used to retrieve the location of physical observers
+        bulletSystem = getSystem(BulletSystem.class);
+
+        // the heightfield shape factory is optional, it's only needed when there are heightfield entities
+        if (heightfieldShapeFactory == null) {
+            heightfieldShapeFactory = getSystem(HeightfieldShapeFactory.class);
+        }
+    }
+
+    @Override
+    public void start() {
+        observers = entityData.getEntities(Observer.class, WarpPosition.class);
+        heightfields = entityData.getEntities(Heightfield.class, WarpPosition.class);
+        // the entities that already exist are not reported as added
+        heightfields.forEach(this::addHeightfield);
+    }
+
+    @Override
+    public void update(SimTime time) {
+        if (observers.applyChanges()) {
+            dirty = true;
+        }
+
+        if (heightfields.applyChanges()) {
+            heightfields.getRemovedEntities().forEach(this::removeHeightfield);
+            for (Entity entity : heightfields.getChangedEntities()) {
+                removeHeightfield(entity);
+                addHeightfield(entity);
+            }
+            heightfields.getAddedEntities().forEach(this::addHeightfield);
+        }
+
+        // create the entities of the chunks that finished loading
+        for (Chunk chunk : chunks.values()) {
+            if (chunk.entities == null && chunk.shapes.isDone()) {
+                chunk.attach();
+            }
+        }
+
+        updateObserverLocations();
+        if (dirty) {
+            dirty = false;
+            updateChunks();
+        }
+    }
+
+    @Override
+    public void stop() {
+        for (Chunk chunk : chunks.values()) {
+            chunk.detach();
+        }
+        chunks.clear();
+        observerLocations.clear();
+        heightfieldTiles.clear();
+        observers.release();
+        heightfields.release();
+    }
+
+    @Override
+    protected void terminate() {
+    }
+
+    /**
+     * Register static geometry. The geometry is added to the physics space when the chunk that contains the location
+     * is within the radius of an observer. This method should be called from the thread running the system.
+     *
+     * @param shapeId  the key of the collision shape
+     * @param location the world location
+     * @param rotation the world rotation
+     */
+    public void register(@NonNull String shapeId, @NonNull Vector3f location, @NonNull Quaternion rotation) {
+        register(new StaticElement(shapeId, location.clone(), rotation.clone(), null));
+    }
+
+    /**
+     * Register the tiles of a tiled spatial as static geometry. The collision shapes of the tiles should be registered
+     * or loadable by the shape registry.
+     *
+     * @param tiles    the tiles
+     * @param location the world location of the tiled spatial
+     * @param rotation the world rotation of the tiled spatial
+     * @see MeshTiler
+     */
+    public void register(@NonNull List<MeshTile> tiles, @NonNull Vector3f location, @NonNull Quaternion rotation) {
+        for (MeshTile tile : tiles) {
+            register(tile.getShapeId(), MeshTiler.getLocation(tile, location, rotation), rotation);
+        }
+    }
+
+    /**
+     * Remove all the static geometry with the given collision shape. This method should be called from the thread
+     * running the system.
+     *
+     * @param shapeId the key of the collision shape
+     */
+    public void unregister(@NonNull String shapeId) {
+        unregister(Collections.singleton(shapeId));
+    }
+
+    /**
+     * Returns the number of chunks that are loaded or loading.
+     *
+     * @return the number of active chunks
+     */
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    /**
+     * Returns the chunk coordinate of a world coordinate.
+     *
+     * @param value the world coordinate
+     * @return the chunk coordinate
+     */
+    public int getChunkCoordinate(float value) {
+        return (int) Math.floor(value / chunkSize);
+    }
+
+    private void register(StaticElement element) {
+        long key = getKey(getChunkCoordinate(element.location.x), getChunkCoordinate(element.location.z));
+        elements.computeIfAbsent(key, k -> new ArrayList<>()).add(element);
+        // reload the chunk when it's loaded
+        Chunk chunk = chunks.remove(key);
+        if (chunk != null) {
+            chunk.detach();
+        }
+        dirty = true;
+    }
+
+    private void unregister(Set<String> shapeIds) {
+        Iterator<Map.Entry<Long, List<StaticElement>>> iterator = elements.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, List<StaticElement>> entry = iterator.next();
+            if (entry.getValue().removeIf(element -> shapeIds.contains(element.shapeId))) {
+                // reload the chunk when it's loaded
+                Chunk chunk = chunks.remove(entry.getKey());
+                if (chunk != null) {
+                    chunk.detach();
+                }
+                if (entry.getValue().isEmpty()) {
+                    iterator.remove();
+                }
+                dirty = true;
+            }
+        }
+    }
+
+    private void addHeightfield(Entity entity) {
+        Heightfield heightfield = entity.get(Heightfield.class);
+        HeightfieldData heightfieldData = heightfieldShapeFactory != null ? heightfieldShapeFactory.get(heightfield.getName()) : null;
+        if (heightfieldData == null) {
+            log.warn("No height data found for {} of {}", heightfield, entity.getId());
+            return;
+        }
+
+        WarpPosition position = entity.get(WarpPosition.class);
+        Quaternion rotation = position.getRotation().clone();
+        Vector3f origin = position.getLocation().clone();
+        int tileSize = heightfield.getTileSize();
+        Set<String> tiles = new HashSet<>();
+        for (int z = 0; z < heightfieldData.getTilesZ(tileSize); z++) {
+            for (int x = 0; x < heightfieldData.getTilesX(tileSize); x++) {
+                String shapeId = HeightfieldShapeFactory.getShapeId(heightfield.getName(), tileSize, x, z);
+                // the exact center depends on the heights of the tile, it's only read when the chunk loads
+                int tileX = x;
+                int tileZ = z;
+                Vector3f estimate = heightfieldData.getApproximateTileCenter(tileX, tileZ, tileSize);
+                register(new StaticElement(shapeId, rotation.mult(estimate).addLocal(origin), rotation,
+                        () -> rotation.mult(heightfieldData.getTileCenter(tileX, tileZ, tileSize)).addLocal(origin)));
+                tiles.add(shapeId);
+            }
+        }
+        log.debug("Registered {} tiles of {}", tiles.size(), heightfield);
+        heightfieldTiles.put(entity.getId(), tiles);
+    }
+
+    private void removeHeightfield(Entity entity) {
+        Set<String> tiles = heightfieldTiles.remove(entity.getId());
+        if (tiles != null) {
+            unregister(tiles);
+        }
+    }
+
+    /**
+     * Mark the chunks as dirty when an observer moved. The radius is tested against the location of the observer, so
+     * chunks can enter or leave the radius while the observer stays in the same chunk.
+     */
+    private void updateObserverLocations() {
+        if (observerLocations.size() != observers.size()) {
+            observerLocations.keySet().removeIf(entityId -> !observers.containsId(entityId));
+        }
+
+        for (Entity observer : observers) {
+            Vector3f location = getLocation(observer);
+            Vector3f previous = observerLocations.get(observer.getId());
+            if (previous == null) {
+                observerLocations.put(observer.getId(), location.clone());
+                dirty = true;
+            } else if (!previous.equals(location)) {
+                previous.set(location);
+                dirty = true;
+            }
+        }
+    }
+
+    private void updateChunks() {
+        Set<Long> required = new HashSet<>();
+        for (Entity observer : observers) {
+            Vector3f location = getLocation(observer);
+            float radius = observer.get(Observer.class).getRadius();
+            int minX = getChunkCoordinate(location.x - radius);
+            int maxX = getChunkCoordinate(location.x + radius);
+            int minZ = getChunkCoordinate(location.z - radius);
+            int maxZ = getChunkCoordinate(location.z + radius);
+            for (int x = minX; x <= maxX; x++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    long key = getKey(x, z);
+                    if (elements.containsKey(key) && getDistanceSquared(location, x, z) <= radius * radius) {
+                        required.add(key);
+                    }
+                }
+            }
+        }
+
+        // load the required chunks
+        for (Long key : required) {
+            if (!chunks.containsKey(key)) {
+                Chunk chunk = new Chunk(key, elements.get(key));
+                log.trace("Loading {}", chunk);
+                chunks.put(key, chunk);
+            }
+        }
+
+        // unload the chunks that are outside the unload distance of all observers
+        Iterator<Chunk> iterator = chunks.values().iterator();
+        while (iterator.hasNext()) {
+            Chunk chunk = iterator.next();
+            if (!required.contains(chunk.key) && !isWithinUnloadDistance(chunk.key)) {
+                log.trace("Unloading {}", chunk);
+                chunk.detach();
+                iterator.remove();
+            }
+        }
+    }
+
+    private boolean isWithinUnloadDistance(long key) {
+        int x = (int) (key >> 32);
+        int z = (int) key;
+        for (Entity observer : observers) {
+            float distance = observer.get(Observer.class).getRadius() + unloadMargin;
+            if (getDistanceSquared(getLocation(observer), x, z) <= distance * distance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the squared distance on the XZ plane from the location to the closest point of the chunk.
+     */
+    private float getDistanceSquared(Vector3f location, int x, int z) {
+        float dx = Math.max(Math.max(x * chunkSize - location.x, 0), location.x - (x + 1) * chunkSize);
+        float dz = Math.max(Math.max(z * chunkSize - location.z, 0), location.z - (z + 1) * chunkSize);
+        return dx * dx + dz * dz;
+    }
+
+    private Vector3f getLocation(Entity observer) {
+        RigidBodyEntity body = bulletSystem != null ? bulletSystem.getPhysicalEntity(observer.getId()) : null;
+        return body != null ? body.getLocation() : observer.get(WarpPosition.class).getLocation();
+    }
+
+    private static long getKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    private static class StaticElement {
+
+        private final String shapeId;
+        private final Quaternion rotation;
+        // the location used to index the element, or the exact location when it's resolved
+        private Vector3f location;
+        // computes the exact location when the chunk loads, null when the location is exact
+        private Supplier<Vector3f> locator;
+
+        private StaticElement(String shapeId, Vector3f location, Quaternion rotation, Supplier<Vector3f> locator) {
+            this.shapeId = shapeId;
+            this.location = location;
+            this.rotation = rotation;
+            this.locator = locator;
+        }
+
+        private Vector3f getLocation() {
+            if (locator != null) {
+                location = locator.get();
+                locator = null;
+            }
+            return location;
+        }
+
+    }
+
+    /**
+     * A chunk that is loading or loaded.
+     */
+    private class Chunk {
+
+        private final long key;
+        private final List<StaticElement> elements;
+        // completes when all the collision shapes of the chunk are loaded
+        private final CompletableFuture<Void> shapes;
+        // the entities of the chunk, null when the chunk is loading
+        private List<EntityId> entities;
+
+        private Chunk(long key, List<StaticElement> elements) {
+            this.key = key;
+            this.elements = elements;
+            this.shapes = shapeRegistry.preload(elements.stream().map(e -> e.shapeId).distinct().collect(Collectors.toList()));
+        }
+
+        /**
+         * Create the entities of the chunk.
+         */
+        private void attach() {
+            if (shapes.isCompletedExceptionally()) {
+                // don't create entities with shapes that can't be loaded, the chunk is retried when it's reloaded
+                log.error("Unable to load the collision shapes of {}", this);
+                entities = Collections.emptyList();
+                return;
+            }
+
+            entities = new ArrayList<>(elements.size());
+            for (StaticElement element : elements) {
+                EntityId entityId = entityData.createEntity();
+                entityData.setComponents(entityId, new Mass(0), new PhysicalShape(element.shapeId), new WarpPosition(element.getLocation(), element.rotation));
+                entities.add(entityId);
+            }
+            log.trace("Loaded {}", this);
+        }
+
+        /**
+         * Remove the entities of the chunk.
+         */
+        private void detach() {
+            if (entities != null) {
+                for (EntityId entityId : entities) {
+                    entityData.removeEntity(entityId);
+                }
+                entities = null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Chunk[" + (int) (key >> 32) + "," + (int) key + "]";
+        }
+
+    }
+
+}
@@ -0,0 +1,379 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.bullet.collision.shapes.CollisionShape;
+import com.jme3.export.Savable;
+import com.jme3.export.binary.BinaryExporter;
+import com.jme3.export.binary.BinaryImporter;
+import com.jme3.math.Transform;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Supplier;
+
+/**
+ * A disk backed cache of collision shapes. Shapes are stored in the jME binary format in the cache directory and are
+ * keyed by a name and a content hash of the source they are created from. A cached shape is only rebuilt when the
+ * content hash changes. Cached shapes are read through memory-mapped files.
+ * <p>
+ * A {@link com.jme3.bullet.collision.shapes.MeshCollisionShape} stores its BVH when it's serialized, so the expensive
+ * BVH creation is skipped when the shape is read from the cache.
+ */
+@Slf4j
+public class CollisionShapeCache {
+
+    private static final String EXTENSION = ".j3o";
+    // bump the version when the way the content hash is calculated changes
+    private static final int VERSION = 1;
+
+    @Getter
+    private final Path directory;
+
+    public CollisionShapeCache(@NonNull Path directory) {
+        try {
+            this.directory = Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to create collision shape cache directory " + directory, e);
+        }
+    }
+
+    /**
+     * Returns the cached collision shape with the given name and content hash. When no cached shape is found, the
+     * shape is created using the factory and stored in the cache.
+     *
+     * @param name    the name of the shape
+     * @param hash    the content hash of the source of the shape
+     * @param factory the factory to create the shape when it isn't cached
+     * @return the collision shape
+     */
+    public CollisionShape get(String name, String hash, @NonNull Supplier<CollisionShape> factory) {
+        CollisionShape collisionShape = load(name, hash);
+        if (collisionShape != null) {
+            return collisionShape;
+        }
+
+        collisionShape = factory.get();
+        if (collisionShape != null) {
+            store(name, hash, collisionShape);
+        }
+        return collisionShape;
+    }
+
+    /**
+     * Load a cached collision shape.
+     *
+     * @param name the name of the shape
+     * @param hash the content hash of the source of the shape
+     * @return the cached collision shape or null when the shape isn't cached or couldn't be read
+     */
+    public CollisionShape load(@NonNull String name, @NonNull String hash) {
+        Path file = getFile(name, hash);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Savable savable = BinaryImporter.getInstance().load(new ByteBufferInputStream(buffer));
+            if (!(savable instanceof CollisionShape)) {
+                log.warn("Cached file {} doesn't contain a collision shape", file);
+                return null;
+            }
+
+            log.debug("Loaded {} from {} in {}ms", name, file, (System.nanoTime() - start) / 1000000);
+            return (CollisionShape) savable;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to read cached collision shape {} from {}", name, file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Store a collision shape in the cache. Previously cached versions of the shape with a different content hash are
+     * removed.
+     *
+     * @param name           the name of the shape
+     * @param hash           the content hash of the source of the shape
+     * @param collisionShape the collision shape to store
+     */
+    public void store(@NonNull String name, @NonNull String hash, @NonNull CollisionShape collisionShape) {
+        Path file = getFile(name, hash);
+        try {
+            // write to a temporary file first, so a cache file is never partially written
+            Path tmp = Files.createTempFile(directory, getPrefix(name), ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                BinaryExporter.getInstance().save(collisionShape, out);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Stored {} in {}", name, file);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to cache collision shape {} in {}", name, file, e);
+            return;
+        }
+
+        removeStale(name, file);
+    }
+
+    /**
+     * Remove all cached versions of a shape.
+     *
+     * @param name the name of the shape
+     */
+    public void remove(@NonNull String name) {
+        removeStale(name, null);
+    }
+
+    /**
+     * Calculates a content hash of the meshes in the spatial. The hash includes the vertex positions, the indices and
+     * the transforms of the geometries relative to the spatial, as these define the collision shape that is created
+     * from the spatial.
+     *
+     * @param spatial the spatial
+     * @return the hex encoded content hash
+     */
+    public static String hash(@NonNull Spatial spatial) {
+        return hash(spatial, null);
+    }
+
+    /**
+     * Calculates a content hash of the meshes in the spatial and the type of the shape that is created from it. Shapes
+     * of different types that are created from the same spatial, eg. a mesh shape and a dynamic mesh shape, have a
+     * different hash.
+     *
+     * @param spatial the spatial
+     * @param type    the type of the shape or null
+     * @return the hex encoded content hash
+     */
+    public static String hash(@NonNull Spatial spatial, String type) {
+        MessageDigest digest = createDigest();
+        ByteBuffer scratch = ByteBuffer.allocate(64);
+        updateDigest(digest, scratch, VERSION);
+        if (type != null) {
+            digest.update(type.getBytes(StandardCharsets.UTF_8));
+        }
+
+        spatial.depthFirstTraversal(s -> {
+            if (s instanceof Geometry) {
+                Geometry geometry = (Geometry) s;
+                Mesh mesh = geometry.getMesh();
+                Transform transform = MeshData.getTransform(geometry, spatial);
+                updateDigest(digest, scratch, mesh.getMode().ordinal());
+                updateDigest(digest, scratch, transform.getTranslation().x, transform.getTranslation().y, transform.getTranslation().z);
+                updateDigest(digest, scratch, transform.getRotation().getX(), transform.getRotation().getY(), transform.getRotation().getZ(), transform.getRotation().getW());
+                updateDigest(digest, scratch, transform.getScale().x, transform.getScale().y, transform.getScale().z);
+                updateDigest(digest, scratch, mesh.getBuffer(VertexBuffer.Type.Position));
+                updateDigest(digest, scratch, mesh.getBuffer(VertexBuffer.Type.Index));
+            }
+        });
+
+        return toHex(digest.digest());
+    }
+
+    private Path getFile(String name, String hash) {
+        return directory.resolve(getPrefix(name) + hash + EXTENSION);
+    }
+
+    /**
+     * The name of the shape can be any string, use a digest of the name as file name prefix.
+     */
+    private static String getPrefix(String name) {
+        MessageDigest digest = createDigest();
+        return toHex(digest.digest(name.getBytes(StandardCharsets.UTF_8))) + "-";
+    }
+
+    private void removeStale(String name, Path current) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, getPrefix(name) + "*" + EXTENSION)) {
+            for (Path file : files) {
+                if (!file.equals(current)) {
+                    log.trace("Removing stale cache file {}", file);
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Unable to remove stale cache files of {}", name, e);
+        }
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 digest is not available", e);
+        }
+    }
+
+    private static void updateDigest(MessageDigest digest, ByteBuffer scratch, int value) {
+        scratch.clear();
+        scratch.putInt(value);
+        scratch.flip();
+        digest.update(scratch);
+    }
+
+    private static void updateDigest(MessageDigest digest, ByteBuffer scratch, float... values) {
+        scratch.clear();
+        for (float value : values) {
+            scratch.putFloat(value);
+        }
+        scratch.flip();
+        digest.update(scratch);
+    }
+
+    private static void updateDigest(MessageDigest digest, ByteBuffer scratch, VertexBuffer vertexBuffer) {
+        if (vertexBuffer == null || vertexBuffer.getData() == null) {
+            updateDigest(digest, scratch, -1);
+            return;
+        }
+
+        Buffer data = vertexBuffer.getData();
+        updateDigest(digest, scratch, vertexBuffer.getFormat().ordinal());
+        updateDigest(digest, scratch, data.limit());
+        if (data instanceof FloatBuffer) {
+            FloatBuffer buffer = ((FloatBuffer) data).duplicate();
+            buffer.rewind();
+            while (buffer.hasRemaining()) {
+                scratch.clear();
+                while (buffer.hasRemaining() && scratch.remaining() >= Float.BYTES) {
+                    scratch.putFloat(buffer.get());
+                }
+                scratch.flip();
+                digest.update(scratch);
+            }
+        } else if (data instanceof IntBuffer) {
+            IntBuffer buffer = ((IntBuffer) data).duplicate();
+            buffer.rewind();
+            while (buffer.hasRemaining()) {
+                scratch.clear();
+                while (buffer.hasRemaining() && scratch.remaining() >= Integer.BYTES) {
+                    scratch.putInt(buffer.get());
+                }
+                scratch.flip();
+                digest.update(scratch);
+            }
+        } else if (data instanceof ShortBuffer) {
+            ShortBuffer buffer = ((ShortBuffer) data).duplicate();
+            buffer.rewind();
+            while (buffer.hasRemaining()) {
+                scratch.clear();
+                while (buffer.hasRemaining() && scratch.remaining() >= Short.BYTES) {
+                    scratch.putShort(buffer.get());
+                }
+                scratch.flip();
+                digest.update(scratch);
+            }
+        } else if (data instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) data).duplicate();
+            buffer.rewind();
+            digest.update(buffer);
+        } else if (data instanceof DoubleBuffer) {
+            DoubleBuffer buffer = ((DoubleBuffer) data).duplicate();
+            buffer.rewind();
+            while (buffer.hasRemaining()) {
+                scratch.clear();
+                while (buffer.hasRemaining() && scratch.remaining() >= Double.BYTES) {
+                    scratch.putDouble(buffer.get());
+                }
+                scratch.flip();
+                digest.update(scratch);
+            }
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * An input stream that reads from a (memory-mapped) byte buffer.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+    }
+
+}
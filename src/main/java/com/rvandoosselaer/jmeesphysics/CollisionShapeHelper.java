@@ -34,16 +34,37 @@ import com.jme3.bullet.collision.shapes.BoxCollisionShape;
 import com.jme3.bullet.collision.shapes.CapsuleCollisionShape;
 import com.jme3.bullet.collision.shapes.CollisionShape;
 import com.jme3.bullet.collision.shapes.CompoundCollisionShape;
+import com.jme3.bullet.collision.shapes.HullCollisionShape;
 import com.jme3.bullet.collision.shapes.SphereCollisionShape;
 import com.jme3.bullet.util.CollisionShapeFactory;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Spatial;
+import lombok.extern.slf4j.Slf4j;
+import vhacd.VHACD;
+import vhacd.VHACDHull;
+import vhacd.VHACDParameters;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * A helper class to create {@link CollisionShape} objects.
  */
+@Slf4j
 public class CollisionShapeHelper {
 
+    /**
+     * The maximum number of vertices of a mesh to use a hull collision shape in
+     * {@link #createDynamicShape(Spatial, VHACDParameters, CollisionShapeCache)}.
+     */
+    public static final int MAX_HULL_VERTICES = 100;
+    /**
+     * The minimum ratio of the volume of a mesh to the volume of its bounding box to use a box collision shape in
+     * {@link #createDynamicShape(Spatial, VHACDParameters, CollisionShapeCache)}.
+     */
+    public static final float MIN_BOX_FILL_RATIO = 0.95f;
+
     public static CollisionShape createBoxShape(Vector3f extent) {
         return new BoxCollisionShape(extent);
     }
@@ -64,6 +85,106 @@ public class CollisionShapeHelper {
         return CollisionShapeFactory.createDynamicMeshShape(spatial);
     }
 
+    /**
+     * Creates a compound collision shape of convex hulls, using a V-HACD convex decomposition of the meshes of the
+     * spatial. The narrowphase collision detection of the decomposed shape is a lot faster than a GImpact shape created
+     * with {@link #createDynamicMeshShape(Spatial)}, which makes it a better fit for dynamic bodies.
+     *
+     * @param spatial    the spatial
+     * @param parameters the V-HACD parameters
+     * @return a compound collision shape of convex hulls
+     */
+    public static CollisionShape createDecomposedShape(Spatial spatial, VHACDParameters parameters) {
+        return decompose(MeshData.of(spatial), parameters);
+    }
+
+    /**
+     * Creates a convex decomposition of the meshes of the spatial and caches the result. The decomposition is only
+     * calculated when the meshes of the spatial or the parameters change.
+     *
+     * @param spatial    the spatial
+     * @param parameters the V-HACD parameters
+     * @param cache      the cache of the decomposed shapes
+     * @return a compound collision shape of convex hulls
+     * @see #createDecomposedShape(Spatial, VHACDParameters)
+     */
+    public static CollisionShape createDecomposedShape(Spatial spatial, VHACDParameters parameters, CollisionShapeCache cache) {
+        MeshData meshData = MeshData.of(spatial);
+        String hash = getDecompositionHash(spatial, parameters);
+        return cache.get(getDecompositionName(hash), hash, () -> decompose(meshData, parameters));
+    }
+
+    /**
+     * Creates a cached convex decomposition of the meshes of the spatial on the executor. The mesh data is read on the
+     * calling thread, the spatial can be modified as soon as this method returns.
+     *
+     * @param spatial    the spatial
+     * @param parameters the V-HACD parameters
+     * @param cache      the cache of the decomposed shapes, or null
+     * @param executor   the executor to run the decomposition on
+     * @return a future of the compound collision shape of convex hulls
+     * @see #createDecomposedShape(Spatial, VHACDParameters, CollisionShapeCache)
+     */
+    public static CompletableFuture<CollisionShape> createDecomposedShapeAsync(Spatial spatial, VHACDParameters parameters, CollisionShapeCache cache, Executor executor) {
+        MeshData meshData = MeshData.of(spatial);
+        if (cache == null) {
+            return CompletableFuture.supplyAsync(() -> decompose(meshData, parameters), executor);
+        }
+
+        String hash = getDecompositionHash(spatial, parameters);
+        String name = getDecompositionName(hash);
+        return CompletableFuture.supplyAsync(() -> cache.get(name, hash, () -> decompose(meshData, parameters)), executor);
+    }
+
+    /**
+     * Creates a collision shape for a dynamic body based on the complexity of the meshes of the spatial:
+     * <ul>
+     * <li>a box collision shape when the meshes fill their bounding box</li>
+     * <li>a hull collision shape when the meshes have no more than {@link #MAX_HULL_VERTICES} vertices</li>
+     * <li>a compound collision shape of a convex decomposition of the meshes otherwise</li>
+     * </ul>
+     *
+     * @param spatial    the spatial
+     * @param parameters the V-HACD parameters used for the convex decomposition
+     * @param cache      the cache of decomposed shapes, or null
+     * @return a collision shape for a dynamic body
+     */
+    public static CollisionShape createDynamicShape(Spatial spatial, VHACDParameters parameters, CollisionShapeCache cache) {
+        MeshData meshData = MeshData.of(spatial);
+        if (meshData.getTriangleCount() == 0) {
+            throw new IllegalArgumentException("No triangles found in " + spatial);
+        }
+
+        Vector3f min = new Vector3f();
+        Vector3f max = new Vector3f();
+        meshData.getBounds(min, max);
+        Vector3f extent = max.subtract(min).multLocal(0.5f);
+        float boxVolume = 8 * extent.x * extent.y * extent.z;
+        if (boxVolume > 0 && meshData.getVolume() / boxVolume >= MIN_BOX_FILL_RATIO) {
+            log.trace("Using a box shape for {}", spatial);
+            Vector3f center = min.add(max).multLocal(0.5f);
+            BoxCollisionShape box = new BoxCollisionShape(extent);
+            if (center.length() <= 1e-4f) {
+                return box;
+            }
+            CompoundCollisionShape compoundShape = new CompoundCollisionShape();
+            compoundShape.addChildShape(box, center);
+            return compoundShape;
+        }
+
+        if (meshData.getVertexCount() <= MAX_HULL_VERTICES) {
+            log.trace("Using a hull shape for {}", spatial);
+            return new HullCollisionShape(meshData.positions);
+        }
+
+        log.trace("Using a convex decomposition for {}", spatial);
+        if (cache == null) {
+            return decompose(meshData, parameters);
+        }
+        String hash = getDecompositionHash(spatial, parameters);
+        return cache.get(getDecompositionName(hash), hash, () -> decompose(meshData, parameters));
+    }
+
     public static CollisionShape createCapsuleShape(Spatial spatial) {
         Vector3f extent = ((BoundingBox) spatial.getWorldBound()).getExtent(new Vector3f());
         return new CapsuleCollisionShape(extent.z, (2 * extent.y) - (2 * extent.z));
@@ -90,4 +211,37 @@ public class CollisionShapeHelper {
         }
     }
 
+    private static CollisionShape decompose(MeshData meshData, VHACDParameters parameters) {
+        long start = System.nanoTime();
+        List<VHACDHull> hulls = VHACD.compute(meshData.positions, meshData.indices, parameters);
+        if (hulls.isEmpty()) {
+            throw new IllegalStateException("Convex decomposition didn't produce any hulls");
+        }
+
+        CompoundCollisionShape compoundShape = new CompoundCollisionShape();
+        for (VHACDHull hull : hulls) {
+            compoundShape.addChildShape(new HullCollisionShape(hull.clonePositions()), Vector3f.ZERO);
+        }
+        log.debug("Decomposed {} triangles in {} hulls in {}ms", meshData.getTriangleCount(), hulls.size(), (System.nanoTime() - start) / 1000000);
+        return compoundShape;
+    }
+
+    /**
+     * The decompositions are stored by their content hash, spatials with the same name can have different meshes.
+     */
+    private static String getDecompositionName(String hash) {
+        return "vhacd/" + hash;
+    }
+
+    /**
+     * The content hash of a decomposition includes the mesh data and the parameters that affect the result.
+     */
+    private static String getDecompositionHash(Spatial spatial, VHACDParameters parameters) {
+        return CollisionShapeCache.hash(spatial) + "-" + Integer.toHexString((parameters.getVoxelResolution() + "/"
+                + parameters.getMaxConcavity() + "/" + parameters.getMaxVerticesPerHull() + "/"
+                + parameters.getMinVolumePerHull() + "/" + parameters.getPlaneDownSampling() + "/"
+                + parameters.getConvexHullDownSampling() + "/" + parameters.getAlpha() + "/" + parameters.getBeta() + "/"
+                + parameters.getPCA() + "/" + parameters.getACDMode()).hashCode());
+    }
+
 }
@@ -30,54 +30,444 @@
 package com.rvandoosselaer.jmeesphysics;
 
 import com.jme3.bullet.collision.shapes.CollisionShape;
+import com.jme3.bullet.collision.shapes.CompoundCollisionShape;
+import com.jme3.bullet.collision.shapes.GImpactCollisionShape;
+import com.jme3.bullet.collision.shapes.HullCollisionShape;
+import com.jme3.bullet.collision.shapes.MeshCollisionShape;
+import com.jme3.bullet.collision.shapes.infos.ChildCollisionShape;
+import com.jme3.scene.Spatial;
 import com.rvandoosselaer.jmeesphysics.es.PhysicalShape;
+import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 
 /**
  * A {@link PhysicalShapeRegistry} implementation that uses an internal thread-safe index to look up collision shapes.
  * The {@link #loadCollisionShape(PhysicalShape)} method can be overwritten to allow for custom load behaviour for
  * collision shapes that aren't found in the registry.
+ * <p>
+ * When a {@link CollisionShapeCache} is set, collision shapes that are created from a spatial using
+ * {@link #register(PhysicalShape, Spatial, String, Function)} are stored on disk and reused as long as the meshes of
+ * the spatial and the type of the shape don't change.
+ * <p>
+ * When an {@link Executor} is set, collision shapes are loaded asynchronously on the executor. Concurrent requests for
+ * the same shape that isn't loaded yet share the same load operation, so a shape is never loaded twice.
+ * <p>
+ * The registry keeps track of the number of live bodies that use a shape. When a memory budget is set, the least
+ * recently used shapes that are loaded with {@link #loadCollisionShape(PhysicalShape)} and are no longer used by a body
+ * are evicted when the estimated native memory of the loaded shapes exceeds the budget. Evicted shapes are loaded
+ * again when they are requested. Shapes that are loaded but not used by a body yet, eg. preloaded shapes, are
+ * evictable as well, so preloads that are never used don't stay loaded. Shapes that are registered explicitly are only
+ * removed with {@link #unregister(String)}.
+ * <p>
+ * Collision shapes with a parametric shape id, eg. box:0.5,0.5,0.5, are created by the {@link ParametricShapeFactory}
+ * registered for the type of the shape. The parameters are quantized to the tolerance and the shape is shared by all
+ * shape ids with the same canonical parameters. See {@link ParametricShapes} for the built-in parametric shapes.
  */
 @Slf4j
 public class DefaultPhysicalShapeRegistry implements PhysicalShapeRegistry {
 
     private final Map<String, CollisionShape> registry = new ConcurrentHashMap<>();
+    // the load operations that are in progress
+    private final Map<String, CompletableFuture<CollisionShape>> loading = new ConcurrentHashMap<>();
+    // the factories of parametric shapes by shape type
+    private final Map<String, ParametricShapeFactory> shapeFactories = new ConcurrentHashMap<>();
+    // the canonical shape ids of parametric shape ids
+    private final Map<String, String> canonicalShapeIds = new ConcurrentHashMap<>();
+    /**
+     * The tolerance the parameters of parametric shape ids are quantized to.
+     */
+    @Getter
+    private float tolerance = 0.01f;
+    @Getter
+    @Setter
+    private CollisionShapeCache shapeCache;
+    @Getter
+    @Setter
+    private Executor executor;
+    // the number of live bodies using a shape
+    private final Map<String, Integer> references = new HashMap<>();
+    // the estimated native memory of the shapes that are loaded with loadCollisionShape() and can be evicted
+    private final Map<String, Long> loadedShapes = new HashMap<>();
+    // the loaded shapes that aren't used, in least recently used order
+    private final LinkedHashMap<String, Long> unreferencedShapes = new LinkedHashMap<>(16, 0.75f, true);
+    private long loadedMemory;
+    /**
+     * The budget in bytes for the estimated native memory of the loaded shapes. A value of 0 or lower disables eviction.
+     */
+    @Getter
+    private long memoryBudget;
+
+    public DefaultPhysicalShapeRegistry() {
+        registerShapeFactory(ParametricShapes.BOX, ParametricShapes.BOX_FACTORY);
+        registerShapeFactory(ParametricShapes.SPHERE, ParametricShapes.SPHERE_FACTORY);
+        registerShapeFactory(ParametricShapes.CAPSULE, ParametricShapes.CAPSULE_FACTORY);
+    }
+
+    public DefaultPhysicalShapeRegistry(Executor executor) {
+        this();
+        this.executor = executor;
+    }
+
+    /**
+     * Register a factory for parametric shape ids of the given type, eg. box for box:0.5,0.5,0.5
+     *
+     * @param type    the type of the parametric shape
+     * @param factory the factory of the shapes
+     */
+    public void registerShapeFactory(@NonNull String type, @NonNull ParametricShapeFactory factory) {
+        shapeFactories.put(type, factory);
+        canonicalShapeIds.clear();
+    }
+
+    /**
+     * Set the tolerance the parameters of parametric shape ids are quantized to. Shapes with parameters within the
+     * tolerance share the same collision shape.
+     *
+     * @param tolerance the tolerance
+     */
+    public void setTolerance(float tolerance) {
+        this.tolerance = tolerance;
+        canonicalShapeIds.clear();
+    }
 
     @Override
-    public CollisionShape register(@NonNull String shapeId, @NonNull CollisionShape collisionShape) {
+    public CollisionShape register(@NonNull String id, @NonNull CollisionShape collisionShape) {
+        String shapeId = resolve(id);
         log.trace("Registering {} -> {}", shapeId, collisionShape);
         registry.put(shapeId, collisionShape);
+        // explicitly registered shapes can't be loaded again, they are never evicted
+        forget(shapeId);
         return collisionShape;
     }
 
+    @Override
+    public CollisionShape unregister(@NonNull String id) {
+        String shapeId = resolve(id);
+        log.trace("Unregistering {}", shapeId);
+        forget(shapeId);
+        return registry.remove(shapeId);
+    }
+
+    @Override
+    public synchronized void retain(@NonNull PhysicalShape physicalShape) {
+        String shapeId = resolve(physicalShape.getShapeId());
+        int count = references.merge(shapeId, 1, Integer::sum);
+        if (count == 1) {
+            unreferencedShapes.remove(shapeId);
+        }
+    }
+
+    @Override
+    public synchronized void release(@NonNull PhysicalShape physicalShape) {
+        String shapeId = resolve(physicalShape.getShapeId());
+        Integer count = references.get(shapeId);
+        if (count == null) {
+            log.warn("Releasing {} that isn't retained", shapeId);
+            return;
+        }
+
+        if (count > 1) {
+            references.put(shapeId, count - 1);
+            return;
+        }
+
+        references.remove(shapeId);
+        Long size = loadedShapes.get(shapeId);
+        if (size != null) {
+            unreferencedShapes.put(shapeId, size);
+            evict();
+        }
+    }
+
+    /**
+     * Returns the number of live bodies using the shape.
+     *
+     * @param physicalShape the physical shape component holding the key
+     * @return the number of live bodies using the shape
+     */
+    public synchronized int getReferenceCount(@NonNull PhysicalShape physicalShape) {
+        return references.getOrDefault(resolve(physicalShape.getShapeId()), 0);
+    }
+
+    /**
+     * Returns the estimated native memory in bytes of the shapes that are loaded with
+     * {@link #loadCollisionShape(PhysicalShape)}.
+     *
+     * @return the estimated native memory of the loaded shapes
+     */
+    public synchronized long getLoadedMemory() {
+        return loadedMemory;
+    }
+
+    /**
+     * Set the budget in bytes for the estimated native memory of the loaded shapes. Unused shapes are evicted in least
+     * recently used order until the loaded shapes fit in the budget. A value of 0 or lower disables eviction.
+     *
+     * @param memoryBudget the memory budget in bytes
+     */
+    public synchronized void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        evict();
+    }
+
     @Override
     public CollisionShape register(PhysicalShape physicalShape, CollisionShape collisionShape) {
         return register(physicalShape.getShapeId(), collisionShape);
     }
 
+    /**
+     * Register a collision shape that is created from the spatial using the factory. When a shape cache is set, the
+     * collision shape is read from the cache and the factory is only called when the content of the spatial or the
+     * type changed. The type identifies the factory, eg. mesh for CollisionShapeHelper::createMeshShape, so a shape
+     * that is created with another factory isn't read from the cache.
+     *
+     * @param physicalShape the physical shape component holding the key
+     * @param spatial       the spatial to create the collision shape from
+     * @param type          the type of the collision shape that is created by the factory
+     * @param factory       the method that creates the collision shape, eg. CollisionShapeHelper::createMeshShape
+     * @return the collision shape linked to the physical shape
+     */
+    public CollisionShape register(@NonNull PhysicalShape physicalShape, @NonNull Spatial spatial, @NonNull String type,
+                                   @NonNull Function<Spatial, CollisionShape> factory) {
+        String hash = shapeCache != null ? CollisionShapeCache.hash(spatial, type) : null;
+        CollisionShape collisionShape = shapeCache != null
+                ? shapeCache.get(physicalShape.getShapeId(), hash, () -> factory.apply(spatial))
+                : factory.apply(spatial);
+
+        return register(physicalShape, collisionShape);
+    }
+
     @Override
     public CollisionShape get(PhysicalShape physicalShape) {
         log.trace("Retrieving {}", physicalShape.getShapeId());
-        CollisionShape collisionShape = registry.get(physicalShape.getShapeId());
+        String shapeId = resolve(physicalShape.getShapeId());
+        CollisionShape collisionShape = registry.get(shapeId);
         if (collisionShape != null) {
+            touch(shapeId);
             return collisionShape;
         }
 
-        // collision shape isn't found in the registry. Use the custom loadCollisionShape() method.
-        collisionShape = loadCollisionShape(physicalShape);
-        if (collisionShape == null) {
-            throw new IllegalArgumentException("No collision shape could be retrieved for " + physicalShape);
+        // collision shape isn't found in the registry. Wait for the load operation to complete.
+        try {
+            return load(physicalShape, shapeId).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
         }
+    }
 
-        return register(physicalShape, collisionShape);
+    @Override
+    public CompletableFuture<CollisionShape> getAsync(PhysicalShape physicalShape) {
+        String shapeId = resolve(physicalShape.getShapeId());
+        CollisionShape collisionShape = registry.get(shapeId);
+        if (collisionShape != null) {
+            touch(shapeId);
+            return CompletableFuture.completedFuture(collisionShape);
+        }
+
+        return load(physicalShape, shapeId);
+    }
+
+    @Override
+    public CompletableFuture<Void> preload(@NonNull Collection<String> shapeIds) {
+        log.debug("Preloading {} shapes", shapeIds.size());
+        return CompletableFuture.allOf(shapeIds.stream()
+                .map(shapeId -> getAsync(new PhysicalShape(shapeId)))
+                .toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Starts loading the collision shape with the resolved shape id, or returns the load operation that is already in
+     * progress for the shape.
+     */
+    private CompletableFuture<CollisionShape> load(PhysicalShape physicalShape, String shapeId) {
+        CompletableFuture<CollisionShape> future = new CompletableFuture<>();
+        CompletableFuture<CollisionShape> inProgress = loading.putIfAbsent(shapeId, future);
+        if (inProgress != null) {
+            log.trace("Waiting for the load of {} in progress", shapeId);
+            return inProgress;
+        }
+
+        // the shape could have been registered in the meantime
+        CollisionShape collisionShape = registry.get(shapeId);
+        if (collisionShape != null) {
+            loading.remove(shapeId, future);
+            future.complete(collisionShape);
+            return future;
+        }
+
+        Runnable task = () -> {
+            try {
+                CollisionShape loaded = create(physicalShape, shapeId);
+                if (loaded == null) {
+                    throw new IllegalArgumentException("No collision shape could be retrieved for " + physicalShape);
+                }
+                // register the shape before the load operation is removed, so it's always found by other callers
+                log.trace("Loaded {} -> {}", shapeId, loaded);
+                registry.put(shapeId, loaded);
+                loaded(shapeId, estimateMemory(loaded));
+                future.complete(loaded);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                loading.remove(shapeId, future);
+            }
+        };
+
+        if (executor != null) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // eg. the executor is shut down, a later request can try again
+                log.warn("Unable to load {}: {}", shapeId, e.getMessage());
+                loading.remove(shapeId, future);
+                future.completeExceptionally(e);
+            }
+        } else {
+            task.run();
+        }
+
+        return future;
     }
 
     protected CollisionShape loadCollisionShape(PhysicalShape physicalShape) {
         return null;
     }
 
+    /**
+     * Create the collision shape of a parametric shape id using the registered factory, or use the custom
+     * {@link #loadCollisionShape(PhysicalShape)} method.
+     */
+    private CollisionShape create(PhysicalShape physicalShape, String shapeId) {
+        int separator = shapeId.indexOf(':');
+        ParametricShapeFactory factory = separator > 0 ? shapeFactories.get(shapeId.substring(0, separator)) : null;
+        if (factory == null) {
+            return loadCollisionShape(physicalShape);
+        }
+
+        try {
+            return factory.create(shapeId.substring(separator + 1));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Unable to create the collision shape of " + shapeId, e);
+        }
+    }
+
+    /**
+     * Returns the canonical shape id of a parametric shape id, or the shape id itself when it isn't a parametric shape
+     * id.
+     */
+    private String resolve(String shapeId) {
+        int separator = shapeId.indexOf(':');
+        if (separator < 0) {
+            return shapeId;
+        }
+
+        String canonicalShapeId = canonicalShapeIds.get(shapeId);
+        if (canonicalShapeId != null) {
+            return canonicalShapeId;
+        }
+
+        ParametricShapeFactory factory = shapeFactories.get(shapeId.substring(0, separator));
+        if (factory == null) {
+            return shapeId;
+        }
+
+        try {
+            canonicalShapeId = shapeId.substring(0, separator + 1) + factory.canonicalize(shapeId.substring(separator + 1), tolerance);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid parametric shape id {}: {}", shapeId, e.getMessage());
+            return shapeId;
+        }
+        canonicalShapeIds.put(shapeId, canonicalShapeId);
+        return canonicalShapeId;
+    }
+
+    /**
+     * Returns an estimate of the native memory in bytes that is used by the collision shape. The estimate is used to
+     * evict shapes when a memory budget is set.
+     *
+     * @param collisionShape the collision shape
+     * @return the estimated native memory in bytes
+     */
+    protected long estimateMemory(CollisionShape collisionShape) {
+        if (collisionShape instanceof MeshCollisionShape) {
+            // vertices, indices and the bvh nodes
+            MeshCollisionShape mesh = (MeshCollisionShape) collisionShape;
+            return 256L + mesh.countMeshVertices() * 12L + mesh.countMeshTriangles() * (12L + 64L);
+        }
+        if (collisionShape instanceof GImpactCollisionShape) {
+            GImpactCollisionShape mesh = (GImpactCollisionShape) collisionShape;
+            return 256L + mesh.countMeshVertices() * 12L + mesh.countMeshTriangles() * (12L + 64L);
+        }
+        if (collisionShape instanceof HullCollisionShape) {
+            return 256L + ((HullCollisionShape) collisionShape).countHullVertices() * 16L;
+        }
+        if (collisionShape instanceof CompoundCollisionShape) {
+            long size = 256L;
+            for (ChildCollisionShape child : ((CompoundCollisionShape) collisionShape).listChildren()) {
+                size += 128L + estimateMemory(child.getShape());
+            }
+            return size;
+        }
+        return 256L;
+    }
+
+    private synchronized void loaded(String shapeId, long size) {
+        Long previous = loadedShapes.put(shapeId, size);
+        loadedMemory += size - (previous != null ? previous : 0);
+        // a shape that isn't used by a body, eg. a preloaded shape, is evictable until it's retained
+        if (!references.containsKey(shapeId)) {
+            unreferencedShapes.put(shapeId, size);
+        }
+        evict();
+    }
+
+    private synchronized void forget(String shapeId) {
+        Long size = loadedShapes.remove(shapeId);
+        if (size != null) {
+            loadedMemory -= size;
+            unreferencedShapes.remove(shapeId);
+        }
+    }
+
+    /**
+     * Mark the shape as recently used.
+     */
+    private synchronized void touch(String shapeId) {
+        unreferencedShapes.get(shapeId);
+    }
+
+    private synchronized void evict() {
+        if (memoryBudget <= 0) {
+            return;
+        }
+
+        Iterator<Map.Entry<String, Long>> iterator = unreferencedShapes.entrySet().iterator();
+        while (loadedMemory > memoryBudget && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            loadedShapes.remove(eldest.getKey());
+            loadedMemory -= eldest.getValue();
+            // the native memory is freed when the shape is garbage collected
+            registry.remove(eldest.getKey());
+            log.debug("Evicted {} ({} bytes), loaded shapes use {}/{} bytes", eldest.getKey(), eldest.getValue(), loadedMemory, memoryBudget);
+        }
+    }
+
 }
@@ -0,0 +1,279 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.collision.shapes.HeightfieldCollisionShape;
+import com.jme3.math.Vector3f;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Height data of a terrain, read from a compact memory-mapped file. The heights are stored as unsigned 16 bit values
+ * between the minimum and the maximum height of the terrain. Only the pages of the file that are used are loaded in
+ * memory.
+ * <p>
+ * The file starts with a header holding the magic number, the number of samples along the x and z axis, the distance
+ * between the samples and the minimum and maximum height, followed by the samples row by row. All values are little
+ * endian.
+ * <p>
+ * The terrain is split in square tiles of tileSize x tileSize quads that share their border samples. Terrains where
+ * the number of samples minus one is not a multiple of the tile size have smaller tiles on the far edges.
+ */
+@Getter
+public class HeightfieldData {
+
+    private static final int MAGIC = 0x4a484631;
+    private static final int HEADER_SIZE = 24;
+
+    private final int width;
+    private final int depth;
+    private final float horizontalScale;
+    private final float minHeight;
+    private final float maxHeight;
+    @Getter(lombok.AccessLevel.NONE)
+    private final ByteBuffer samples;
+
+    private HeightfieldData(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Invalid heightfield data");
+        }
+        this.width = buffer.getInt(4);
+        this.depth = buffer.getInt(8);
+        this.horizontalScale = buffer.getFloat(12);
+        this.minHeight = buffer.getFloat(16);
+        this.maxHeight = buffer.getFloat(20);
+        if (width < 2 || depth < 2 || buffer.limit() < HEADER_SIZE + 2L * width * depth) {
+            throw new IllegalArgumentException("Invalid heightfield size " + width + "x" + depth);
+        }
+        this.samples = buffer;
+    }
+
+    /**
+     * Open a heightfield file. The file is memory-mapped.
+     *
+     * @param file the heightfield file
+     * @return the height data
+     * @throws IOException when the file can't be read
+     */
+    public static HeightfieldData open(@NonNull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new HeightfieldData(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Write height data to a heightfield file. The heights are stored row by row, the sample at (x, z) is at index
+     * z * width + x.
+     *
+     * @param file            the heightfield file
+     * @param heights         the heights
+     * @param width           the number of samples along the x axis
+     * @param depth           the number of samples along the z axis
+     * @param horizontalScale the distance between two samples
+     * @throws IOException when the file can't be written
+     */
+    public static void write(@NonNull Path file, @NonNull float[] heights, int width, int depth, float horizontalScale) throws IOException {
+        if (width < 2 || depth < 2 || heights.length != width * depth) {
+            throw new IllegalArgumentException("Invalid heightfield size " + width + "x" + depth + " for " + heights.length + " heights");
+        }
+
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (float height : heights) {
+            min = Math.min(min, height);
+            max = Math.max(max, height);
+        }
+        float range = max - min;
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 2 * heights.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(width).putInt(depth).putFloat(horizontalScale).putFloat(min).putFloat(max);
+        for (float height : heights) {
+            buffer.putShort((short) (range > 0 ? Math.round((height - min) / range * 0xFFFF) : 0));
+        }
+        buffer.flip();
+
+        // write to a temporary file first, so an open heightfield is never partially written
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the height of the sample. The coordinates are clamped to the size of the heightfield.
+     *
+     * @param x the x coordinate of the sample
+     * @param z the z coordinate of the sample
+     * @return the height
+     */
+    public float getHeight(int x, int z) {
+        x = Math.max(0, Math.min(width - 1, x));
+        z = Math.max(0, Math.min(depth - 1, z));
+        int value = samples.getShort(HEADER_SIZE + 2 * (z * width + x)) & 0xFFFF;
+        return minHeight + value / (float) 0xFFFF * (maxHeight - minHeight);
+    }
+
+    /**
+     * Returns the number of tiles along the x axis.
+     *
+     * @param tileSize the number of quads along the side of a tile
+     * @return the number of tiles
+     */
+    public int getTilesX(int tileSize) {
+        return (width - 2) / tileSize + 1;
+    }
+
+    /**
+     * Returns the number of tiles along the z axis.
+     *
+     * @param tileSize the number of quads along the side of a tile
+     * @return the number of tiles
+     */
+    public int getTilesZ(int tileSize) {
+        return (depth - 2) / tileSize + 1;
+    }
+
+    /**
+     * Returns the number of quads along the x axis of a tile. The tiles on the far edge can be smaller than the tile
+     * size.
+     *
+     * @param tileX    the x coordinate of the tile
+     * @param tileSize the number of quads along the side of a tile
+     * @return the number of quads
+     */
+    public int getTileQuadsX(int tileX, int tileSize) {
+        return Math.max(1, Math.min(tileSize, width - 1 - tileX * tileSize));
+    }
+
+    /**
+     * Returns the number of quads along the z axis of a tile. The tiles on the far edge can be smaller than the tile
+     * size.
+     *
+     * @param tileZ    the z coordinate of the tile
+     * @param tileSize the number of quads along the side of a tile
+     * @return the number of quads
+     */
+    public int getTileQuadsZ(int tileZ, int tileSize) {
+        return Math.max(1, Math.min(tileSize, depth - 1 - tileZ * tileSize));
+    }
+
+    /**
+     * Returns the heights of a tile row by row, (quadsX + 1) x (quadsZ + 1) samples.
+     *
+     * @param tileX    the x coordinate of the tile
+     * @param tileZ    the z coordinate of the tile
+     * @param tileSize the number of quads along the side of a tile
+     * @return the heights of the tile
+     * @see #getTileQuadsX(int, int)
+     * @see #getTileQuadsZ(int, int)
+     */
+    public float[] getTileHeights(int tileX, int tileZ, int tileSize) {
+        int sizeX = getTileQuadsX(tileX, tileSize) + 1;
+        int sizeZ = getTileQuadsZ(tileZ, tileSize) + 1;
+        float[] heights = new float[sizeX * sizeZ];
+        for (int z = 0; z < sizeZ; z++) {
+            for (int x = 0; x < sizeX; x++) {
+                heights[z * sizeX + x] = getHeight(tileX * tileSize + x, tileZ * tileSize + z);
+            }
+        }
+        return heights;
+    }
+
+    /**
+     * Create the collision shape of a tile. The collision shape is centered on the center of the tile, use
+     * {@link #getTileCenter(int, int, int)} to position the tile.
+     *
+     * @param tileX    the x coordinate of the tile
+     * @param tileZ    the z coordinate of the tile
+     * @param tileSize the number of quads along the side of a tile
+     * @return the collision shape of the tile
+     */
+    public HeightfieldCollisionShape createTileShape(int tileX, int tileZ, int tileSize) {
+        int sizeX = getTileQuadsX(tileX, tileSize) + 1;
+        int sizeZ = getTileQuadsZ(tileZ, tileSize) + 1;
+        // the same settings as the square heightfield constructor
+        return new HeightfieldCollisionShape(sizeZ, sizeX, getTileHeights(tileX, tileZ, tileSize),
+                new Vector3f(horizontalScale, 1, horizontalScale), PhysicsSpace.AXIS_Y, true, false, false, false);
+    }
+
+    /**
+     * Returns an estimate of the center of a tile, relative to the first sample of the heightfield. The height of the
+     * estimate is halfway the minimum and maximum height of the heightfield, so the samples of the tile are not read.
+     *
+     * @param tileX    the x coordinate of the tile
+     * @param tileZ    the z coordinate of the tile
+     * @param tileSize the number of quads along the side of a tile
+     * @return the estimated center of the tile
+     */
+    public Vector3f getApproximateTileCenter(int tileX, int tileZ, int tileSize) {
+        return getTileCenter(tileX, tileZ, tileSize, (minHeight + maxHeight) * 0.5f);
+    }
+
+    /**
+     * Returns the center of the collision shape of a tile, relative to the first sample of the heightfield. Bullet
+     * centers a heightfield on its bounds, so the height of the center is halfway the lowest and the highest sample of
+     * the tile.
+     *
+     * @param tileX    the x coordinate of the tile
+     * @param tileZ    the z coordinate of the tile
+     * @param tileSize the number of quads along the side of a tile
+     * @return the center of the tile
+     */
+    public Vector3f getTileCenter(int tileX, int tileZ, int tileSize) {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (float height : getTileHeights(tileX, tileZ, tileSize)) {
+            min = Math.min(min, height);
+            max = Math.max(max, height);
+        }
+        return getTileCenter(tileX, tileZ, tileSize, (min + max) * 0.5f);
+    }
+
+    private Vector3f getTileCenter(int tileX, int tileZ, int tileSize, float height) {
+        float x = tileX * tileSize + getTileQuadsX(tileX, tileSize) * 0.5f;
+        float z = tileZ * tileSize + getTileQuadsZ(tileZ, tileSize) * 0.5f;
+        return new Vector3f(x * horizontalScale, height, z * horizontalScale);
+    }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.bullet.collision.shapes.CollisionShape;
+import lombok.NonNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A parametric shape factory that creates the collision shapes of the tiles of the registered heightfields. The id of a
+ * tile is heightfield:{name},{tileSize},{x},{z}. Register the factory on the {@link DefaultPhysicalShapeRegistry}
+ * using the {@link #TYPE}.
+ */
+public class HeightfieldShapeFactory implements ParametricShapeFactory {
+
+    public static final String TYPE = "heightfield";
+
+    private final Map<String, HeightfieldData> heightfields = new ConcurrentHashMap<>();
+
+    /**
+     * Register the height data of a heightfield.
+     *
+     * @param name           the name of the heightfield
+     * @param heightfieldData the height data
+     */
+    public void register(@NonNull String name, @NonNull HeightfieldData heightfieldData) {
+        if (name.indexOf(',') >= 0) {
+            throw new IllegalArgumentException("The name of a heightfield can't contain a comma: " + name);
+        }
+        heightfields.put(name, heightfieldData);
+    }
+
+    public HeightfieldData unregister(@NonNull String name) {
+        return heightfields.remove(name);
+    }
+
+    public HeightfieldData get(@NonNull String name) {
+        return heightfields.get(name);
+    }
+
+    /**
+     * Returns the shape id of a tile of a heightfield.
+     *
+     * @param name     the name of the heightfield
+     * @param tileSize the number of quads along the side of a tile
+     * @param x        the x coordinate of the tile
+     * @param z        the z coordinate of the tile
+     * @return the shape id of the tile
+     */
+    public static String getShapeId(String name, int tileSize, int x, int z) {
+        return TYPE + ":" + name + "," + tileSize + "," + x + "," + z;
+    }
+
+    @Override
+    public String canonicalize(String parameters, float tolerance) {
+        String[] values = parameters.split(",");
+        if (values.length != 4) {
+            throw new IllegalArgumentException("Expected 4 parameters: " + parameters);
+        }
+        try {
+            int tileSize = Integer.parseInt(values[1].trim());
+            if (tileSize < 1) {
+                throw new IllegalArgumentException("Tile size " + tileSize + " should be larger than 0");
+            }
+            return values[0].trim() + "," + tileSize + "," + Integer.parseInt(values[2].trim()) + "," + Integer.parseInt(values[3].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid parameters " + parameters, e);
+        }
+    }
+
+    @Override
+    public CollisionShape create(String parameters) {
+        String[] values = parameters.split(",");
+        HeightfieldData heightfieldData = heightfields.get(values[0]);
+        if (heightfieldData == null) {
+            throw new IllegalStateException("Heightfield " + values[0] + " is not registered");
+        }
+        return heightfieldData.createTileShape(Integer.parseInt(values[2]), Integer.parseInt(values[3]), Integer.parseInt(values[1]));
+    }
+
+}
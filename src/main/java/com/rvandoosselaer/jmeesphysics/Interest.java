@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.simsilica.es.EntityId;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The physical entities that are relevant to an observer, maintained by the {@link InterestManager}. The entered, left
+ * and updated entities are the changes of the last physics tick.
+ */
+@RequiredArgsConstructor
+public class Interest {
+
+    @Getter
+    private final EntityId observerId;
+    Set<EntityId> relevant = new HashSet<>();
+    // the relevant entities of the previous tick, reused as the relevant entities of the next tick
+    Set<EntityId> next = new HashSet<>();
+    final List<PhysicalEntity> entered = new ArrayList<>();
+    final List<EntityId> left = new ArrayList<>();
+    final List<PhysicalEntity> updated = new ArrayList<>();
+
+    /**
+     * Returns the entities that are relevant to the observer.
+     *
+     * @return the relevant entities
+     */
+    public Set<EntityId> getRelevant() {
+        return Collections.unmodifiableSet(relevant);
+    }
+
+    /**
+     * Returns the entities that became relevant in the last tick.
+     *
+     * @return the entered entities
+     */
+    public List<PhysicalEntity> getEntered() {
+        return Collections.unmodifiableList(entered);
+    }
+
+    /**
+     * Returns the entities that are no longer relevant or are removed in the last tick.
+     *
+     * @return the left entities
+     */
+    public List<EntityId> getLeft() {
+        return Collections.unmodifiableList(left);
+    }
+
+    /**
+     * Returns the relevant entities that moved in the last tick, excluding the entered entities.
+     *
+     * @return the updated entities
+     */
+    public List<PhysicalEntity> getUpdated() {
+        return Collections.unmodifiableList(updated);
+    }
+
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.math.Vector3f;
+import com.rvandoosselaer.jmeesphysics.es.Observer;
+import com.rvandoosselaer.jmeesphysics.es.WarpPosition;
+import com.simsilica.es.Entity;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.es.EntitySet;
+import com.simsilica.sim.SimTime;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link PhysicalEntityListener} implementation that maintains the set of relevant physical entities of each
+ * {@link Observer} entity: the entities within the radius of the observer. The bodies are indexed in a
+ * {@link SpatialGrid} that is updated when a body moves to another cell, so the cost of an observer depends on the
+ * number of entities near the observer and not on the size of the world.
+ * <p>
+ * After each tick the {@link Interest} of an observer holds the entities that entered, left and moved, so publishers
+ * only have to process the relevant entities of each client. An entity leaves the interest of an observer when it's
+ * further away than the radius plus the leave margin.
+ * <p>
+ * The location of an observer is the location of its physical entity, or the {@link WarpPosition} when the observer
+ * isn't a physical entity.
+ */
+public class InterestManager implements PhysicalEntityListener {
+
+    private final EntitySet observers;
+    private final SpatialGrid grid;
+    private final Map<EntityId, Interest> interests = new HashMap<>();
+    /**
+     * The extra distance an entity should move away from an observer before it leaves the interest of the observer.
+     */
+    @Getter
+    @Setter
+    private float leaveMargin;
+
+    // the slots of the bodies
+    private final Map<EntityId, Integer> slots = new HashMap<>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private PhysicalEntity[] bodies = new PhysicalEntity[64];
+    private float[] locations = new float[64 * 3];
+    private boolean[] moved = new boolean[64];
+    private int slotCount;
+    private boolean updated;
+
+    public InterestManager(@NonNull EntityData entityData, float cellSize) {
+        this.observers = entityData.getEntities(Observer.class, WarpPosition.class);
+        this.grid = new SpatialGrid(cellSize);
+        // the observers that already exist are not reported as added
+        for (Entity observer : observers) {
+            interests.put(observer.getId(), new Interest(observer.getId()));
+        }
+    }
+
+    /**
+     * Returns the interest of an observer, or null when the entity isn't an observer.
+     *
+     * @param observerId the observer entity
+     * @return the interest or null
+     */
+    public Interest getInterest(EntityId observerId) {
+        return interests.get(observerId);
+    }
+
+    /**
+     * Returns the interests of all observers.
+     *
+     * @return the interests
+     */
+    public Collection<Interest> getInterests() {
+        return Collections.unmodifiableCollection(interests.values());
+    }
+
+    /**
+     * Returns true when the entity is relevant to at least one observer.
+     *
+     * @param entityId the entity
+     * @return true when the entity is relevant
+     */
+    public boolean isRelevant(EntityId entityId) {
+        for (Interest interest : interests.values()) {
+            if (interest.relevant.contains(entityId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Release the entity set of the observers.
+     */
+    public void cleanup() {
+        observers.release();
+    }
+
+    @Override
+    public void startFrame(SimTime time) {
+        updated = false;
+    }
+
+    @Override
+    public void physicalEntityAdded(PhysicalEntity physicalEntity) {
+    }
+
+    @Override
+    public void physicalEntityUpdated(PhysicalEntity physicalEntity) {
+        Integer slot = slots.get(physicalEntity.getEntityId());
+        Vector3f location = physicalEntity.getLocation();
+        if (slot == null) {
+            slot = allocate(physicalEntity);
+            moved[slot] = true;
+            grid.insert(slot, location.x, location.y, location.z, location.x, location.y, location.z);
+        } else {
+            int i = slot * 3;
+            float x = locations[i], y = locations[i + 1], z = locations[i + 2];
+            moved[slot] = x != location.x || y != location.y || z != location.z;
+            if (moved[slot]) {
+                grid.move(slot, x, y, z, x, y, z, location.x, location.y, location.z, location.x, location.y, location.z);
+            }
+        }
+        locations[slot * 3] = location.x;
+        locations[slot * 3 + 1] = location.y;
+        locations[slot * 3 + 2] = location.z;
+        updated = true;
+    }
+
+    @Override
+    public void physicalEntityRemoved(PhysicalEntity physicalEntity) {
+        Integer slot = slots.remove(physicalEntity.getEntityId());
+        if (slot != null) {
+            float x = locations[slot * 3], y = locations[slot * 3 + 1], z = locations[slot * 3 + 2];
+            grid.remove(slot, x, y, z, x, y, z);
+            bodies[slot] = null;
+            freeSlots.push(slot);
+            updated = true;
+        }
+    }
+
+    @Override
+    public void endFrame(SimTime time) {
+        boolean observersChanged = observers.applyChanges();
+        if (observersChanged) {
+            for (Entity observer : observers.getRemovedEntities()) {
+                interests.remove(observer.getId());
+            }
+            for (Entity observer : observers.getAddedEntities()) {
+                interests.put(observer.getId(), new Interest(observer.getId()));
+            }
+        }
+        if (!updated && !observersChanged) {
+            return;
+        }
+
+        for (Entity observer : observers) {
+            update(interests.get(observer.getId()), observer);
+        }
+    }
+
+    private void update(Interest interest, Entity observer) {
+        interest.entered.clear();
+        interest.left.clear();
+        interest.updated.clear();
+
+        Vector3f center = getLocation(observer);
+        float radius = observer.get(Observer.class).getRadius();
+        float leaveRadius = radius + leaveMargin;
+        // the set of the previous tick is reused for the next tick
+        Set<EntityId> previous = interest.relevant;
+        Set<EntityId> relevant = interest.next;
+        relevant.clear();
+
+        grid.query(center.x - leaveRadius, center.y - leaveRadius, center.z - leaveRadius,
+                center.x + leaveRadius, center.y + leaveRadius, center.z + leaveRadius, slot -> {
+            float dx = locations[slot * 3] - center.x;
+            float dy = locations[slot * 3 + 1] - center.y;
+            float dz = locations[slot * 3 + 2] - center.z;
+            float distanceSquared = dx * dx + dy * dy + dz * dz;
+            PhysicalEntity body = bodies[slot];
+            boolean wasRelevant = previous.contains(body.getEntityId());
+            if (distanceSquared <= radius * radius || (wasRelevant && distanceSquared <= leaveRadius * leaveRadius)) {
+                relevant.add(body.getEntityId());
+                if (!wasRelevant) {
+                    interest.entered.add(body);
+                } else if (moved[slot]) {
+                    interest.updated.add(body);
+                }
+            }
+        });
+
+        for (EntityId entityId : previous) {
+            if (!relevant.contains(entityId)) {
+                interest.left.add(entityId);
+            }
+        }
+        interest.relevant = relevant;
+        interest.next = previous;
+    }
+
+    private Vector3f getLocation(Entity observer) {
+        Integer slot = slots.get(observer.getId());
+        if (slot != null) {
+            return new Vector3f(locations[slot * 3], locations[slot * 3 + 1], locations[slot * 3 + 2]);
+        }
+        return observer.get(WarpPosition.class).getLocation();
+    }
+
+    private int allocate(PhysicalEntity physicalEntity) {
+        int slot;
+        if (!freeSlots.isEmpty()) {
+            slot = freeSlots.pop();
+        } else {
+            slot = slotCount++;
+            if (slot == bodies.length) {
+                bodies = Arrays.copyOf(bodies, slot * 2);
+                locations = Arrays.copyOf(locations, slot * 6);
+                moved = Arrays.copyOf(moved, slot * 2);
+            }
+        }
+        bodies[slot] = physicalEntity;
+        slots.put(physicalEntity.getEntityId(), slot);
+        return slot;
+    }
+
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.mesh.IndexBuffer;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The triangles of all the meshes in a spatial, merged in one vertex and index array. The vertex positions are relative
+ * to the spatial. Only the triangle based meshes of the spatial are included.
+ */
+class MeshData {
+
+    // x, y, z of each vertex
+    final float[] positions;
+    // 3 vertex indices for each triangle
+    final int[] indices;
+
+    MeshData(float[] positions, int[] indices) {
+        this.positions = positions;
+        this.indices = indices;
+    }
+
+    static MeshData of(Spatial spatial) {
+        List<Geometry> geometries = new ArrayList<>();
+        spatial.depthFirstTraversal(s -> {
+            if (s instanceof Geometry && isTriangleMesh(((Geometry) s).getMesh())) {
+                geometries.add((Geometry) s);
+            }
+        });
+
+        int vertexCount = 0;
+        int indexCount = 0;
+        for (Geometry geometry : geometries) {
+            vertexCount += geometry.getMesh().getVertexCount();
+            indexCount += geometry.getMesh().getTriangleCount() * 3;
+        }
+
+        float[] positions = new float[vertexCount * 3];
+        int[] indices = new int[indexCount];
+        int vertexOffset = 0;
+        int indexOffset = 0;
+        Vector3f vertex = new Vector3f();
+        for (Geometry geometry : geometries) {
+            Mesh mesh = geometry.getMesh();
+            Transform transform = getTransform(geometry, spatial);
+
+            FloatBuffer buffer = ((FloatBuffer) mesh.getBuffer(VertexBuffer.Type.Position).getData()).duplicate();
+            buffer.rewind();
+            for (int i = 0; i < mesh.getVertexCount(); i++) {
+                vertex.set(buffer.get(), buffer.get(), buffer.get());
+                transform.transformVector(vertex, vertex);
+                int p = (vertexOffset + i) * 3;
+                positions[p] = vertex.x;
+                positions[p + 1] = vertex.y;
+                positions[p + 2] = vertex.z;
+            }
+
+            // the index list converts strips and fans to triangles
+            IndexBuffer indexBuffer = mesh.getIndicesAsList();
+            int count = mesh.getTriangleCount() * 3;
+            for (int i = 0; i < count; i++) {
+                indices[indexOffset + i] = vertexOffset + indexBuffer.get(i);
+            }
+
+            vertexOffset += mesh.getVertexCount();
+            indexOffset += count;
+        }
+
+        return new MeshData(positions, indices);
+    }
+
+    int getVertexCount() {
+        return positions.length / 3;
+    }
+
+    int getTriangleCount() {
+        return indices.length / 3;
+    }
+
+    /**
+     * Returns the minimum and maximum of the vertex positions.
+     */
+    void getBounds(Vector3f min, Vector3f max) {
+        min.set(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+        max.set(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+        for (int i = 0; i < positions.length; i += 3) {
+            min.set(Math.min(min.x, positions[i]), Math.min(min.y, positions[i + 1]), Math.min(min.z, positions[i + 2]));
+            max.set(Math.max(max.x, positions[i]), Math.max(max.y, positions[i + 1]), Math.max(max.z, positions[i + 2]));
+        }
+    }
+
+    /**
+     * Returns the enclosed volume of the triangles using the divergence theorem. The result is only meaningful for
+     * closed meshes.
+     */
+    float getVolume() {
+        double volume = 0;
+        for (int i = 0; i < indices.length; i += 3) {
+            int a = indices[i] * 3;
+            int b = indices[i + 1] * 3;
+            int c = indices[i + 2] * 3;
+            // signed volume of the tetrahedron of the triangle and the origin
+            volume += positions[a] * (positions[b + 1] * positions[c + 2] - positions[b + 2] * positions[c + 1])
+                    - positions[a + 1] * (positions[b] * positions[c + 2] - positions[b + 2] * positions[c])
+                    + positions[a + 2] * (positions[b] * positions[c + 1] - positions[b + 1] * positions[c]);
+        }
+        return (float) Math.abs(volume / 6.0);
+    }
+
+    private static boolean isTriangleMesh(Mesh mesh) {
+        switch (mesh.getMode()) {
+            case Triangles:
+            case TriangleStrip:
+            case TriangleFan:
+                return mesh.getBuffer(VertexBuffer.Type.Position) != null;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the transform of the geometry relative to the root spatial.
+     */
+    static Transform getTransform(Spatial spatial, Spatial root) {
+        Transform transform = new Transform();
+        Spatial current = spatial;
+        while (current != null && current != root) {
+            transform.combineWithParent(current.getLocalTransform());
+            current = current.getParent();
+        }
+        return transform;
+    }
+
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.bullet.collision.shapes.CollisionShape;
+import com.jme3.bullet.collision.shapes.MeshCollisionShape;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+import com.rvandoosselaer.jmeesphysics.es.Mass;
+import com.rvandoosselaer.jmeesphysics.es.PhysicalShape;
+import com.rvandoosselaer.jmeesphysics.es.WarpPosition;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+
+/**
+ * A helper class to split a large static spatial, like a level, in grid-aligned {@link MeshTile} objects. Each tile
+ * has its own mesh collision shape and can be added as a separate static entity. Queries and the broadphase only have
+ * to deal with the tiles near an object instead of one huge BVH, and tiles can be loaded separately.
+ * <p>
+ * The triangles are assigned to the tile on the XZ plane that contains the center of the triangle. Triangles aren't
+ * clipped, so the bounds of neighbouring tiles can overlap a little.
+ */
+@Slf4j
+public class MeshTiler {
+
+    private MeshTiler() {
+    }
+
+    /**
+     * Split the meshes of the spatial in tiles and create the collision shapes of the tiles.
+     *
+     * @param spatial  the spatial
+     * @param name     the name of the spatial, used as prefix of the shape ids of the tiles
+     * @param tileSize the size of a tile on the X and Z axis
+     * @return the tiles
+     */
+    public static List<MeshTile> createTiles(Spatial spatial, String name, float tileSize) {
+        return createTilesAsync(spatial, name, tileSize, null, Runnable::run).join();
+    }
+
+    /**
+     * Split the meshes of the spatial in tiles and create the collision shapes of the tiles in parallel on the
+     * executor. When a cache is given, the collision shapes of the tiles are read from the cache and only created when
+     * the meshes of the spatial or the tile size changed. The mesh data is read on the calling thread.
+     *
+     * @param spatial  the spatial
+     * @param name     the name of the spatial, used as prefix of the shape ids of the tiles
+     * @param tileSize the size of a tile on the X and Z axis
+     * @param cache    the cache of the collision shapes, or null
+     * @param executor the executor to create the collision shapes on
+     * @return a future of the tiles
+     */
+    public static CompletableFuture<List<MeshTile>> createTilesAsync(@NonNull Spatial spatial, @NonNull String name, float tileSize, CollisionShapeCache cache, @NonNull Executor executor) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("Invalid tile size " + tileSize);
+        }
+
+        MeshData meshData = MeshData.of(spatial);
+        String hash = cache != null ? CollisionShapeCache.hash(spatial) + "-" + Integer.toHexString(Float.floatToIntBits(tileSize)) : null;
+
+        // assign the triangles to the tiles
+        Map<Long, TileTriangles> tiles = new LinkedHashMap<>();
+        for (int i = 0; i < meshData.indices.length; i += 3) {
+            float centerX = (meshData.positions[meshData.indices[i] * 3] + meshData.positions[meshData.indices[i + 1] * 3] + meshData.positions[meshData.indices[i + 2] * 3]) / 3f;
+            float centerZ = (meshData.positions[meshData.indices[i] * 3 + 2] + meshData.positions[meshData.indices[i + 1] * 3 + 2] + meshData.positions[meshData.indices[i + 2] * 3 + 2]) / 3f;
+            int x = (int) Math.floor(centerX / tileSize);
+            int z = (int) Math.floor(centerZ / tileSize);
+            tiles.computeIfAbsent(getKey(x, z), k -> new TileTriangles(x, z)).add(i);
+        }
+        log.debug("Split {} triangles of {} in {} tiles", meshData.getTriangleCount(), name, tiles.size());
+
+        List<CompletableFuture<MeshTile>> futures = new ArrayList<>(tiles.size());
+        for (TileTriangles tile : tiles.values()) {
+            String shapeId = getShapeId(name, tile.x, tile.z);
+            Vector3f origin = new Vector3f(tile.x * tileSize, 0, tile.z * tileSize);
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                CollisionShape collisionShape = cache != null
+                        ? cache.get(shapeId, hash, () -> tile.createShape(meshData, origin))
+                        : tile.createShape(meshData, origin);
+                return new MeshTile(tile.x, tile.z, shapeId, origin, collisionShape);
+            }, executor));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(v -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
+
+    /**
+     * Register the collision shapes of the tiles in the registry.
+     *
+     * @param tiles         the tiles
+     * @param shapeRegistry the shape registry
+     */
+    public static void register(@NonNull List<MeshTile> tiles, @NonNull PhysicalShapeRegistry shapeRegistry) {
+        for (MeshTile tile : tiles) {
+            shapeRegistry.register(tile.getShapeId(), tile.getCollisionShape());
+        }
+    }
+
+    /**
+     * Create a static entity for each tile. The collision shapes of the tiles should be registered in the shape
+     * registry.
+     *
+     * @param tiles      the tiles
+     * @param entityData the entity data
+     * @param location   the world location of the tiled spatial
+     * @param rotation   the world rotation of the tiled spatial
+     * @return the created entities
+     */
+    public static List<EntityId> createEntities(@NonNull List<MeshTile> tiles, @NonNull EntityData entityData, @NonNull Vector3f location, @NonNull Quaternion rotation) {
+        List<EntityId> entities = new ArrayList<>(tiles.size());
+        for (MeshTile tile : tiles) {
+            EntityId entityId = entityData.createEntity();
+            entityData.setComponents(entityId, new Mass(0), new PhysicalShape(tile.getShapeId()), new WarpPosition(getLocation(tile, location, rotation), rotation.clone()));
+            entities.add(entityId);
+        }
+        return entities;
+    }
+
+    /**
+     * Returns the world location of the tile.
+     *
+     * @param tile     the tile
+     * @param location the world location of the tiled spatial
+     * @param rotation the world rotation of the tiled spatial
+     * @return the world location of the tile
+     */
+    public static Vector3f getLocation(MeshTile tile, Vector3f location, Quaternion rotation) {
+        return rotation.mult(tile.getOrigin()).addLocal(location);
+    }
+
+    /**
+     * Returns the shape id of a tile.
+     *
+     * @param name the name of the tiled spatial
+     * @param x    the x coordinate of the tile
+     * @param z    the z coordinate of the tile
+     * @return the shape id of the tile
+     */
+    public static String getShapeId(String name, int x, int z) {
+        return name + "/" + x + "," + z;
+    }
+
+    private static long getKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The triangles assigned to a tile.
+     */
+    private static class TileTriangles {
+
+        private final int x;
+        private final int z;
+        // the offsets of the triangles in the index array of the mesh data
+        private int[] triangles = new int[16];
+        private int size;
+
+        private TileTriangles(int x, int z) {
+            this.x = x;
+            this.z = z;
+        }
+
+        private void add(int triangle) {
+            if (size == triangles.length) {
+                triangles = Arrays.copyOf(triangles, size * 2);
+            }
+            triangles[size++] = triangle;
+        }
+
+        private CollisionShape createShape(MeshData meshData, Vector3f origin) {
+            // the sorted unique vertices of the tile, the position in this array is the index of the vertex in the tile
+            int[] vertices = new int[size * 3];
+            for (int t = 0; t < size; t++) {
+                System.arraycopy(meshData.indices, triangles[t], vertices, t * 3, 3);
+            }
+            Arrays.sort(vertices);
+            int vertexCount = 0;
+            for (int i = 0; i < vertices.length; i++) {
+                if (i == 0 || vertices[i] != vertices[i - 1]) {
+                    vertices[vertexCount++] = vertices[i];
+                }
+            }
+
+            // copy the vertices relative to the origin of the tile
+            float[] positions = new float[vertexCount * 3];
+            for (int i = 0; i < vertexCount; i++) {
+                positions[i * 3] = meshData.positions[vertices[i] * 3] - origin.x;
+                positions[i * 3 + 1] = meshData.positions[vertices[i] * 3 + 1] - origin.y;
+                positions[i * 3 + 2] = meshData.positions[vertices[i] * 3 + 2] - origin.z;
+            }
+
+            int[] indices = new int[size * 3];
+            for (int t = 0; t < size; t++) {
+                for (int v = 0; v < 3; v++) {
+                    indices[t * 3 + v] = Arrays.binarySearch(vertices, 0, vertexCount, meshData.indices[triangles[t] + v]);
+                }
+            }
+
+            Mesh mesh = new Mesh();
+            mesh.setBuffer(VertexBuffer.Type.Position, 3, BufferUtils.createFloatBuffer(positions));
+            mesh.setBuffer(VertexBuffer.Type.Index, 3, BufferUtils.createIntBuffer(indices));
+            mesh.updateCounts();
+            return new MeshCollisionShape(mesh);
+        }
+
+    }
+
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.bullet.collision.shapes.CollisionShape;
+
+/**
+ * A factory that creates collision shapes from the parameters of a parametric shape id. A parametric shape id consists
+ * of the type of the shape and the parameters, separated by a colon. eg. box:0.5,0.5,0.5
+ */
+public interface ParametricShapeFactory {
+
+    /**
+     * Returns the canonical form of the parameters. Equal shapes should have the same canonical parameters, numeric
+     * parameters should be quantized to the tolerance.
+     *
+     * @param parameters the parameters of the shape id
+     * @param tolerance  the tolerance to quantize numeric parameters to
+     * @return the canonical parameters
+     * @throws IllegalArgumentException when the parameters are invalid
+     */
+    String canonicalize(String parameters, float tolerance);
+
+    /**
+     * Create the collision shape of the canonical parameters.
+     *
+     * @param parameters the canonical parameters
+     * @return the collision shape
+     */
+    CollisionShape create(String parameters);
+
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.bullet.collision.shapes.CollisionShape;
+import com.jme3.math.Vector3f;
+import com.rvandoosselaer.jmeesphysics.es.PhysicalShape;
+
+/**
+ * The built-in parametric shapes of the {@link DefaultPhysicalShapeRegistry}. Collision shapes of a parametric shape
+ * id don't need to be registered, they are created when they are requested.
+ * <ul>
+ * <li>box:{x},{y},{z} - a box with the given half extents, or box:{extent} for a cube</li>
+ * <li>sphere:{radius} - a sphere</li>
+ * <li>capsule:{radius},{height}[,bottom|center] - a capsule with the given total height, with the center at the
+ * bottom or in the center of the capsule</li>
+ * </ul>
+ */
+public class ParametricShapes {
+
+    public static final String BOX = "box";
+    public static final String SPHERE = "sphere";
+    public static final String CAPSULE = "capsule";
+
+    public static final ParametricShapeFactory BOX_FACTORY = new ParametricShapeFactory() {
+        @Override
+        public String canonicalize(String parameters, float tolerance) {
+            String[] values = split(parameters, 1, 3);
+            float x = parsePositive(values[0], tolerance);
+            float y = values.length == 3 ? parsePositive(values[1], tolerance) : x;
+            float z = values.length == 3 ? parsePositive(values[2], tolerance) : x;
+            return x + "," + y + "," + z;
+        }
+
+        @Override
+        public CollisionShape create(String parameters) {
+            String[] values = split(parameters, 3, 3);
+            return CollisionShapeHelper.createBoxShape(new Vector3f(Float.parseFloat(values[0]), Float.parseFloat(values[1]), Float.parseFloat(values[2])));
+        }
+    };
+
+    public static final ParametricShapeFactory SPHERE_FACTORY = new ParametricShapeFactory() {
+        @Override
+        public String canonicalize(String parameters, float tolerance) {
+            String[] values = split(parameters, 1, 1);
+            return Float.toString(parsePositive(values[0], tolerance));
+        }
+
+        @Override
+        public CollisionShape create(String parameters) {
+            return CollisionShapeHelper.createSphereShape(Float.parseFloat(parameters));
+        }
+    };
+
+    public static final ParametricShapeFactory CAPSULE_FACTORY = new ParametricShapeFactory() {
+        @Override
+        public String canonicalize(String parameters, float tolerance) {
+            String[] values = split(parameters, 2, 3);
+            float radius = parsePositive(values[0], tolerance);
+            float height = parsePositive(values[1], tolerance);
+            if (height < 2 * radius) {
+                throw new IllegalArgumentException("The height of a capsule can't be less than its diameter: " + parameters);
+            }
+            boolean centerAtBottom = values.length == 3 && isBottom(values[2]);
+            return radius + "," + height + (centerAtBottom ? ",bottom" : "");
+        }
+
+        @Override
+        public CollisionShape create(String parameters) {
+            String[] values = split(parameters, 2, 3);
+            return CollisionShapeHelper.createCapsuleShape(Float.parseFloat(values[0]), Float.parseFloat(values[1]), values.length == 3 && isBottom(values[2]));
+        }
+    };
+
+    private ParametricShapes() {
+    }
+
+    /**
+     * Create a physical shape of a box.
+     *
+     * @param extent the half extents of the box
+     * @return the physical shape of the box
+     */
+    public static PhysicalShape box(Vector3f extent) {
+        return new PhysicalShape(BOX + ":" + extent.x + "," + extent.y + "," + extent.z);
+    }
+
+    /**
+     * Create a physical shape of a sphere.
+     *
+     * @param radius the radius of the sphere
+     * @return the physical shape of the sphere
+     */
+    public static PhysicalShape sphere(float radius) {
+        return new PhysicalShape(SPHERE + ":" + radius);
+    }
+
+    /**
+     * Create a physical shape of a capsule.
+     *
+     * @param radius         radius of the capsule
+     * @param height         total height of the capsule
+     * @param centerAtBottom true if the center of the capsule should be at the bottom of the object
+     * @return the physical shape of the capsule
+     * @see CollisionShapeHelper#createCapsuleShape(float, float, boolean)
+     */
+    public static PhysicalShape capsule(float radius, float height, boolean centerAtBottom) {
+        return new PhysicalShape(CAPSULE + ":" + radius + "," + height + (centerAtBottom ? ",bottom" : ",center"));
+    }
+
+    /**
+     * Quantize the value to a multiple of the tolerance.
+     *
+     * @param value     the value
+     * @param tolerance the tolerance
+     * @return the quantized value
+     */
+    public static float quantize(float value, float tolerance) {
+        if (tolerance <= 0) {
+            return value;
+        }
+        // round in double precision to a long, an int saturates for large values and small tolerances
+        return (float) (Math.round((double) value / tolerance) * (double) tolerance);
+    }
+
+    private static String[] split(String parameters, int min, int max) {
+        String[] values = parameters.split(",");
+        if (values.length < min || values.length > max) {
+            throw new IllegalArgumentException("Expected " + (min == max ? min : min + " to " + max) + " parameters: " + parameters);
+        }
+        return values;
+    }
+
+    private static float parsePositive(String value, float tolerance) {
+        float result;
+        try {
+            result = quantize(Float.parseFloat(value.trim()), tolerance);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid parameter " + value, e);
+        }
+        if (!(result > 0) || Float.isInfinite(result)) {
+            throw new IllegalArgumentException("Parameter " + value + " should be larger than 0");
+        }
+        return result;
+    }
+
+    private static boolean isBottom(String value) {
+        String anchor = value.trim();
+        if ("bottom".equalsIgnoreCase(anchor)) {
+            return true;
+        }
+        if ("center".equalsIgnoreCase(anchor)) {
+            return false;
+        }
+        throw new IllegalArgumentException("Invalid capsule anchor " + value + ", expected bottom or center");
+    }
+
+}
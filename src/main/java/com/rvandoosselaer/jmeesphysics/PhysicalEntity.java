@@ -54,7 +54,8 @@ public interface PhysicalEntity<T extends PhysicsCollisionObject> {
     T getPhysicalObject();
 
     /**
-     * The location of the entity in the {@link com.jme3.bullet.PhysicsSpace}
+     * The location of the entity in world coordinates. This differs from the location in the
+     * {@link com.jme3.bullet.PhysicsSpace} when the origin of the physics space is shifted.
      *
      * @return entity location
      */
@@ -55,4 +55,22 @@ public interface PhysicalEntityDriver {
      */
     void cleanup(PhysicalEntity entity);
 
+    /**
+     * Returns the state of the driver that is stored in a snapshot of the physics world, or null when the driver
+     * doesn't have state that should be stored.
+     *
+     * @return the state of the driver or null
+     */
+    default byte[] saveState() {
+        return null;
+    }
+
+    /**
+     * Called when the physics world is restored from a snapshot with the state returned by {@link #saveState()}.
+     *
+     * @param state the state of the driver
+     */
+    default void restoreState(byte[] state) {
+    }
+
 }
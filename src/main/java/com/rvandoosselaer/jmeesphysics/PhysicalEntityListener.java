@@ -44,6 +44,15 @@ public interface PhysicalEntityListener {
      */
     void startFrame(SimTime time);
 
+    /**
+     * Called after the physics calculation, before the physical entities are updated with the result. It isn't called
+     * in frames where the physics simulation didn't run, the updates in those frames are warps of physical entities.
+     *
+     * @param time time information
+     */
+    default void physicsStepped(SimTime time) {
+    }
+
     /**
      * Called when a physical entity is added to the physics space
      *
@@ -32,6 +32,9 @@ package com.rvandoosselaer.jmeesphysics;
 import com.jme3.bullet.collision.shapes.CollisionShape;
 import com.rvandoosselaer.jmeesphysics.es.PhysicalShape;
 
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * A register of collision shapes that can be retrieved by a key.
  */
@@ -55,6 +58,17 @@ public interface PhysicalShapeRegistry {
      */
     CollisionShape register(PhysicalShape physicalShape, CollisionShape collisionShape);
 
+    /**
+     * Remove the collision shape from the registry. The default implementation doesn't support removing shapes and
+     * returns null.
+     *
+     * @param shapeId the key of the collision shape
+     * @return the removed collision shape or null
+     */
+    default CollisionShape unregister(String shapeId) {
+        return null;
+    }
+
     /**
      * Returns the collision shape linked to the physical shape component
      *
@@ -63,4 +77,50 @@ public interface PhysicalShapeRegistry {
      */
     CollisionShape get(PhysicalShape physicalShape);
 
+    /**
+     * Returns a future that completes with the collision shape linked to the physical shape component. The future is
+     * completed immediately when the collision shape is already loaded. The default implementation loads the
+     * collision shape on the calling thread using {@link #get(PhysicalShape)}.
+     *
+     * @param physicalShape the physical shape component holding the key
+     * @return a future of the collision shape linked to the physical shape
+     */
+    default CompletableFuture<CollisionShape> getAsync(PhysicalShape physicalShape) {
+        CompletableFuture<CollisionShape> future = new CompletableFuture<>();
+        try {
+            future.complete(get(physicalShape));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Load the collision shapes of the given keys in parallel.
+     *
+     * @param shapeIds the keys of the collision shapes
+     * @return a future that completes when all collision shapes are loaded
+     */
+    default CompletableFuture<Void> preload(Collection<String> shapeIds) {
+        return CompletableFuture.allOf(shapeIds.stream()
+                .map(shapeId -> getAsync(new PhysicalShape(shapeId)))
+                .toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Notify the registry that a live body uses the collision shape. A collision shape that is in use is never evicted.
+     *
+     * @param physicalShape the physical shape component holding the key
+     */
+    default void retain(PhysicalShape physicalShape) {
+    }
+
+    /**
+     * Notify the registry that a live body no longer uses the collision shape.
+     *
+     * @param physicalShape the physical shape component holding the key
+     */
+    default void release(PhysicalShape physicalShape) {
+    }
+
 }
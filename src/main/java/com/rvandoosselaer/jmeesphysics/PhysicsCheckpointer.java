@@ -0,0 +1,320 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.simsilica.sim.SimTime;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link PhysicalEntityListener} implementation that periodically writes a checkpoint of the physics world to disk,
+ * to recover from a crash. At the end of the physics frame the state of all bodies is copied into a reusable
+ * {@link PhysicsState}, encoding and writing the checkpoint happens on a background thread. The capture is a full copy
+ * of the state on the physics thread, not a copy-on-write snapshot, so its cost grows with the number of bodies. See
+ * {@link #getMaxCaptureNanos()}.
+ * <p>
+ * The number of states is bounded: when all states are waiting to be written, the checkpoint is skipped instead of
+ * blocking the physics tick. Only the most recent checkpoints are kept in the directory.
+ * <p>
+ * The checkpoint files are numbered with a sequence that continues after the checkpoints already in the directory, so
+ * the order of the files is the order they were written in, also after a restart or a restore to an earlier tick. The
+ * tick of a checkpoint is stored in the file. Files in the directory that don't have the name of a checkpoint are
+ * ignored.
+ */
+@Slf4j
+public class PhysicsCheckpointer implements PhysicalEntityListener {
+
+    private static final String PREFIX = "checkpoint-";
+    private static final String EXTENSION = ".snapshot";
+
+    private final BulletSystem bulletSystem;
+    @Getter
+    private final Path directory;
+    @Getter
+    private final double interval;
+    @Getter
+    private final int maxCheckpoints;
+    // the states that are free to capture a checkpoint in
+    private final BlockingQueue<PhysicsState> states;
+    private final ExecutorService executor;
+    private double nextCheckpoint;
+    // the sequence number of the next checkpoint file, only used on the background thread
+    private long sequence;
+
+    private final AtomicLong checkpoints = new AtomicLong();
+    private final AtomicLong skippedCheckpoints = new AtomicLong();
+    private final AtomicLong failedCheckpoints = new AtomicLong();
+    private volatile long lastCaptureNanos;
+    private volatile long maxCaptureNanos;
+    private volatile long lastLatencyNanos;
+
+    /**
+     * Create a checkpointer that writes at most 2 checkpoints at the same time.
+     *
+     * @param bulletSystem   the bullet system
+     * @param directory      the directory of the checkpoints
+     * @param interval       the time in seconds between checkpoints
+     * @param maxCheckpoints the number of checkpoints to keep
+     */
+    public PhysicsCheckpointer(BulletSystem bulletSystem, Path directory, double interval, int maxCheckpoints) {
+        this(bulletSystem, directory, interval, maxCheckpoints, 2);
+    }
+
+    /**
+     * Create a checkpointer.
+     *
+     * @param bulletSystem   the bullet system
+     * @param directory      the directory of the checkpoints
+     * @param interval       the time in seconds between checkpoints
+     * @param maxCheckpoints the number of checkpoints to keep
+     * @param maxPending     the number of checkpoints that can be captured while a checkpoint is being written
+     */
+    public PhysicsCheckpointer(@NonNull BulletSystem bulletSystem, @NonNull Path directory, double interval, int maxCheckpoints, int maxPending) {
+        if (maxCheckpoints < 1 || maxPending < 1) {
+            throw new IllegalArgumentException("The number of checkpoints should be larger than 0");
+        }
+        try {
+            this.directory = Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to create checkpoint directory " + directory, e);
+        }
+        try {
+            Path latest = findLatest(this.directory);
+            this.sequence = latest != null ? getSequence(latest) + 1 : 0;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to read checkpoint directory " + directory, e);
+        }
+        this.bulletSystem = bulletSystem;
+        this.interval = interval;
+        this.maxCheckpoints = maxCheckpoints;
+        this.states = new ArrayBlockingQueue<>(maxPending);
+        for (int i = 0; i < maxPending; i++) {
+            states.add(new PhysicsState());
+        }
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "physics-checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void startFrame(SimTime time) {
+    }
+
+    @Override
+    public void physicalEntityAdded(PhysicalEntity physicalEntity) {
+    }
+
+    @Override
+    public void physicalEntityUpdated(PhysicalEntity physicalEntity) {
+    }
+
+    @Override
+    public void physicalEntityRemoved(PhysicalEntity physicalEntity) {
+    }
+
+    @Override
+    public void endFrame(SimTime time) {
+        double now = time.getTimeInSeconds();
+        if (now < nextCheckpoint) {
+            return;
+        }
+        nextCheckpoint = now + interval;
+        checkpoint();
+    }
+
+    /**
+     * Capture the state of the physics world and write it to disk on the background thread. This method should only
+     * be called from the thread running the BulletSystem.
+     *
+     * @return true when the checkpoint is captured, false when it's skipped because all states are being written
+     */
+    public boolean checkpoint() {
+        PhysicsState state = states.poll();
+        if (state == null) {
+            log.warn("Skipping checkpoint of tick {}, the previous checkpoints are still being written", bulletSystem.getTick());
+            skippedCheckpoints.incrementAndGet();
+            return false;
+        }
+
+        long start = System.nanoTime();
+        bulletSystem.captureState(state);
+        long captureNanos = System.nanoTime() - start;
+        lastCaptureNanos = captureNanos;
+        maxCaptureNanos = Math.max(maxCaptureNanos, captureNanos);
+
+        executor.execute(() -> write(state, start));
+        return true;
+    }
+
+    /**
+     * Stop the background thread after the pending checkpoints are written.
+     *
+     * @param timeout the maximum time in milliseconds to wait for the pending checkpoints
+     */
+    public void shutdown(long timeout) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                log.warn("Pending checkpoints are not written within {}ms", timeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the most recent checkpoint in the directory, or null when there is no checkpoint.
+     *
+     * @param directory the directory of the checkpoints
+     * @return the most recent checkpoint file or null
+     * @throws IOException when the directory can't be read
+     */
+    public static Path findLatest(@NonNull Path directory) throws IOException {
+        List<Path> files = list(directory);
+        return files.isEmpty() ? null : files.get(files.size() - 1);
+    }
+
+    /**
+     * Returns the number of checkpoints that are written.
+     */
+    public long getCheckpointCount() {
+        return checkpoints.get();
+    }
+
+    /**
+     * Returns the number of checkpoints that are skipped because the previous checkpoints were still being written.
+     */
+    public long getSkippedCount() {
+        return skippedCheckpoints.get();
+    }
+
+    /**
+     * Returns the number of checkpoints that couldn't be written.
+     */
+    public long getFailedCount() {
+        return failedCheckpoints.get();
+    }
+
+    /**
+     * Returns the time in nanoseconds that the last capture added to the physics tick.
+     */
+    public long getLastCaptureNanos() {
+        return lastCaptureNanos;
+    }
+
+    /**
+     * Returns the maximum time in nanoseconds that a capture added to the physics tick.
+     */
+    public long getMaxCaptureNanos() {
+        return maxCaptureNanos;
+    }
+
+    /**
+     * Returns the time in nanoseconds between the capture and the write of the last checkpoint.
+     */
+    public long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    private void write(PhysicsState state, long start) {
+        try {
+            // zero pad the sequence, so the checkpoints are sorted by name
+            Path file = directory.resolve(String.format("%s%019d%s", PREFIX, sequence++, EXTENSION));
+            state.write(file, bulletSystem.getBufferPool());
+            lastLatencyNanos = System.nanoTime() - start;
+            checkpoints.incrementAndGet();
+            log.debug("Written checkpoint {} of tick {} with {} bodies in {}ms", file, state.getTick(), state.getSize(), lastLatencyNanos / 1000000);
+
+            rotate();
+        } catch (IOException | RuntimeException e) {
+            failedCheckpoints.incrementAndGet();
+            log.error("Unable to write checkpoint of tick {}", state.getTick(), e);
+        } finally {
+            state.clear();
+            states.offer(state);
+        }
+    }
+
+    private void rotate() throws IOException {
+        List<Path> files = list(directory);
+        for (int i = 0; i < files.size() - maxCheckpoints; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+
+    /**
+     * Returns the sequence number of the checkpoint file, or -1 when the file name isn't the name of a checkpoint.
+     */
+    private static long getSequence(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            long sequence = Long.parseLong(name.substring(PREFIX.length(), name.length() - EXTENSION.length()));
+            return sequence >= 0 ? sequence : -1;
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the checkpoint files in the directory, sorted by their sequence number.
+     */
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + EXTENSION)) {
+            for (Path file : stream) {
+                if (getSequence(file) < 0) {
+                    log.warn("Ignoring {}, it's not a checkpoint file", file);
+                    continue;
+                }
+                files.add(file);
+            }
+        }
+        files.sort(Comparator.comparingLong(PhysicsCheckpointer::getSequence));
+        return files;
+    }
+
+}
@@ -0,0 +1,420 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.simsilica.es.EntityId;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The state of the bodies of a physics world: the entity, the collision shape, the mass, the transform, the velocity,
+ * the activation state and the state of the driver of each body. The values are stored in primitive arrays that are
+ * reused when the state is cleared, so a state can be captured each tick without creating garbage.
+ * <p>
+ * A state can be encoded in a compact little endian binary format using {@link #write(ByteBuffer)} and decoded using
+ * {@link #read(ByteBuffer)}, or written to and read from a file using {@link #write(Path, ByteBufferPool)} and
+ * {@link #read(Path)}.
+ */
+public class PhysicsState {
+
+    private static final int MAGIC = 0x4a505331;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    // entity id, shape index, mass, transform, velocity, flags and driver state length
+    private static final int BODY_SIZE = 8 + 4 + 4 + 7 * 4 + 6 * 4 + 1 + 4;
+
+    /**
+     * The tick of the physics world when the state was captured.
+     */
+    @Getter
+    @Setter
+    private long tick;
+    @Getter
+    private int size;
+    private long[] entityIds;
+    private String[] shapeIds;
+    private float[] masses;
+    // location and rotation, 7 values per body
+    private float[] transforms;
+    // linear and angular velocity, 6 values per body
+    private float[] velocities;
+    private boolean[] active;
+    private byte[][] driverStates;
+
+    public PhysicsState() {
+        this(64);
+    }
+
+    public PhysicsState(int capacity) {
+        capacity = Math.max(capacity, 1);
+        entityIds = new long[capacity];
+        shapeIds = new String[capacity];
+        masses = new float[capacity];
+        transforms = new float[capacity * 7];
+        velocities = new float[capacity * 6];
+        active = new boolean[capacity];
+        driverStates = new byte[capacity][];
+    }
+
+    /**
+     * Remove all bodies from the state. The arrays are kept to be reused.
+     */
+    public void clear() {
+        Arrays.fill(shapeIds, 0, size, null);
+        Arrays.fill(driverStates, 0, size, null);
+        size = 0;
+        tick = 0;
+    }
+
+    /**
+     * Add the state of a body.
+     *
+     * @return the index of the body in the state
+     */
+    public int add(EntityId entityId, String shapeId, float mass, Vector3f location, Quaternion rotation,
+                   Vector3f linearVelocity, Vector3f angularVelocity, boolean active, byte[] driverState) {
+        ensureCapacity(size + 1);
+        int index = size++;
+        entityIds[index] = entityId.getId();
+        shapeIds[index] = shapeId;
+        masses[index] = mass;
+        int t = index * 7;
+        transforms[t] = location.x;
+        transforms[t + 1] = location.y;
+        transforms[t + 2] = location.z;
+        transforms[t + 3] = rotation.getX();
+        transforms[t + 4] = rotation.getY();
+        transforms[t + 5] = rotation.getZ();
+        transforms[t + 6] = rotation.getW();
+        int v = index * 6;
+        velocities[v] = linearVelocity.x;
+        velocities[v + 1] = linearVelocity.y;
+        velocities[v + 2] = linearVelocity.z;
+        velocities[v + 3] = angularVelocity.x;
+        velocities[v + 4] = angularVelocity.y;
+        velocities[v + 5] = angularVelocity.z;
+        this.active[index] = active;
+        driverStates[index] = driverState;
+        return index;
+    }
+
+    /**
+     * Add the state of a body of another state.
+     *
+     * @param state the other state
+     * @param index the index of the body in the other state
+     * @return the index of the body in this state
+     */
+    public int add(PhysicsState state, int index) {
+        state.checkIndex(index);
+        ensureCapacity(size + 1);
+        int result = size++;
+        entityIds[result] = state.entityIds[index];
+        shapeIds[result] = state.shapeIds[index];
+        masses[result] = state.masses[index];
+        System.arraycopy(state.transforms, index * 7, transforms, result * 7, 7);
+        System.arraycopy(state.velocities, index * 6, velocities, result * 6, 6);
+        active[result] = state.active[index];
+        driverStates[result] = state.driverStates[index];
+        return result;
+    }
+
+    public EntityId getEntityId(int index) {
+        return new EntityId(entityIds[checkIndex(index)]);
+    }
+
+    public String getShapeId(int index) {
+        return shapeIds[checkIndex(index)];
+    }
+
+    public float getMass(int index) {
+        return masses[checkIndex(index)];
+    }
+
+    public Vector3f getLocation(int index, Vector3f store) {
+        int t = checkIndex(index) * 7;
+        return (store != null ? store : new Vector3f()).set(transforms[t], transforms[t + 1], transforms[t + 2]);
+    }
+
+    public Quaternion getRotation(int index, Quaternion store) {
+        int t = checkIndex(index) * 7;
+        return (store != null ? store : new Quaternion()).set(transforms[t + 3], transforms[t + 4], transforms[t + 5], transforms[t + 6]);
+    }
+
+    public Vector3f getLinearVelocity(int index, Vector3f store) {
+        int v = checkIndex(index) * 6;
+        return (store != null ? store : new Vector3f()).set(velocities[v], velocities[v + 1], velocities[v + 2]);
+    }
+
+    public Vector3f getAngularVelocity(int index, Vector3f store) {
+        int v = checkIndex(index) * 6;
+        return (store != null ? store : new Vector3f()).set(velocities[v + 3], velocities[v + 4], velocities[v + 5]);
+    }
+
+    public boolean isActive(int index) {
+        return active[checkIndex(index)];
+    }
+
+    public byte[] getDriverState(int index) {
+        return driverStates[checkIndex(index)];
+    }
+
+    /**
+     * Returns the number of bytes needed to encode the state.
+     *
+     * @return the encoded size
+     */
+    public int getEncodedSize() {
+        long encodedSize = HEADER_SIZE + (long) BODY_SIZE * size;
+        Map<String, Integer> shapeIndex = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            if (shapeIds[i] != null && shapeIndex.putIfAbsent(shapeIds[i], shapeIndex.size()) == null) {
+                encodedSize += 2 + shapeIds[i].getBytes(StandardCharsets.UTF_8).length;
+            }
+            if (driverStates[i] != null) {
+                encodedSize += driverStates[i].length;
+            }
+        }
+        if (encodedSize > Integer.MAX_VALUE) {
+            throw new IllegalStateException("State is too large to encode: " + encodedSize + " bytes");
+        }
+        return (int) encodedSize;
+    }
+
+    /**
+     * Encode the state in the buffer. The shape ids are stored once in a table. The byte order of the buffer is set to
+     * little endian.
+     *
+     * @param buffer the buffer with at least {@link #getEncodedSize()} bytes remaining
+     */
+    public void write(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        Map<String, Integer> shapeIndex = new HashMap<>();
+        String[] shapeTable = new String[size];
+        for (int i = 0; i < size; i++) {
+            if (shapeIds[i] != null && shapeIndex.putIfAbsent(shapeIds[i], shapeIndex.size()) == null) {
+                shapeTable[shapeIndex.size() - 1] = shapeIds[i];
+            }
+        }
+
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(tick).putInt(shapeIndex.size()).putInt(size);
+        for (int i = 0; i < shapeIndex.size(); i++) {
+            byte[] bytes = shapeTable[i].getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IllegalStateException("Shape id is too long: " + shapeTable[i]);
+            }
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+
+        for (int i = 0; i < size; i++) {
+            buffer.putLong(entityIds[i]);
+            buffer.putInt(shapeIds[i] != null ? shapeIndex.get(shapeIds[i]) : -1);
+            buffer.putFloat(masses[i]);
+            for (int t = i * 7; t < i * 7 + 7; t++) {
+                buffer.putFloat(transforms[t]);
+            }
+            for (int v = i * 6; v < i * 6 + 6; v++) {
+                buffer.putFloat(velocities[v]);
+            }
+            buffer.put((byte) (active[i] ? 1 : 0));
+            if (driverStates[i] != null) {
+                buffer.putInt(driverStates[i].length).put(driverStates[i]);
+            } else {
+                buffer.putInt(-1);
+            }
+        }
+    }
+
+    /**
+     * Decode a state from the buffer.
+     *
+     * @param buffer the buffer holding an encoded state
+     * @return the state
+     * @throws IllegalArgumentException when the buffer doesn't hold a valid state
+     */
+    public static PhysicsState read(ByteBuffer buffer) {
+        PhysicsState state = new PhysicsState();
+        state.readFrom(buffer);
+        return state;
+    }
+
+    /**
+     * Replace this state with the state decoded from the buffer. The byte order of the buffer is set to little endian.
+     *
+     * @param buffer the buffer holding an encoded state
+     * @throws IllegalArgumentException when the buffer doesn't hold a valid state
+     */
+    public void readFrom(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Invalid physics state");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported physics state version " + version);
+        }
+
+        clear();
+        tick = buffer.getLong();
+        int shapeCount = buffer.getInt();
+        int count = buffer.getInt();
+        // each shape id takes at least the 2 bytes of its length
+        if (shapeCount < 0 || (long) shapeCount * 2 > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid physics state shape count " + shapeCount);
+        }
+
+        String[] shapeTable = new String[shapeCount];
+        for (int i = 0; i < shapeCount; i++) {
+            if (buffer.remaining() < 2) {
+                throw new IllegalArgumentException("Invalid physics state shape " + i);
+            }
+            int length = buffer.getShort() & 0xFFFF;
+            if (length > buffer.remaining()) {
+                throw new IllegalArgumentException("Invalid physics state shape length " + length);
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            shapeTable[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        if (count < 0 || (long) count * BODY_SIZE > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid physics state size " + count);
+        }
+
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            if (buffer.remaining() < BODY_SIZE) {
+                throw new IllegalArgumentException("Invalid physics state body " + i);
+            }
+            entityIds[i] = buffer.getLong();
+            int shape = buffer.getInt();
+            if (shape >= shapeCount) {
+                throw new IllegalArgumentException("Invalid physics state shape index " + shape);
+            }
+            shapeIds[i] = shape >= 0 ? shapeTable[shape] : null;
+            masses[i] = buffer.getFloat();
+            for (int t = i * 7; t < i * 7 + 7; t++) {
+                transforms[t] = buffer.getFloat();
+            }
+            for (int v = i * 6; v < i * 6 + 6; v++) {
+                velocities[v] = buffer.getFloat();
+            }
+            active[i] = buffer.get() != 0;
+            int length = buffer.getInt();
+            if (length > buffer.remaining()) {
+                throw new IllegalArgumentException("Invalid physics state driver state length " + length);
+            }
+            if (length >= 0) {
+                driverStates[i] = new byte[length];
+                buffer.get(driverStates[i]);
+            }
+        }
+        size = count;
+    }
+
+    /**
+     * Write the encoded state to a file. The state is encoded in a pooled buffer and written to a temporary file that
+     * replaces the file when it's completely written.
+     *
+     * @param file the file
+     * @param pool the pool of the buffer
+     * @throws IOException when the file can't be written
+     */
+    public void write(Path file, ByteBufferPool pool) throws IOException {
+        ByteBuffer buffer = pool.acquire(getEncodedSize());
+        try {
+            write(buffer);
+            buffer.flip();
+
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Read a state from a file. The file is memory-mapped.
+     *
+     * @param file the file
+     * @return the state
+     * @throws IOException when the file can't be read
+     * @throws IllegalArgumentException when the file doesn't hold a valid state
+     */
+    public static PhysicsState read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= entityIds.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, entityIds.length * 2);
+        entityIds = Arrays.copyOf(entityIds, newCapacity);
+        shapeIds = Arrays.copyOf(shapeIds, newCapacity);
+        masses = Arrays.copyOf(masses, newCapacity);
+        transforms = Arrays.copyOf(transforms, newCapacity * 7);
+        velocities = Arrays.copyOf(velocities, newCapacity * 6);
+        active = Arrays.copyOf(active, newCapacity);
+        driverStates = Arrays.copyOf(driverStates, newCapacity);
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for size " + size);
+        }
+        return index;
+    }
+
+}
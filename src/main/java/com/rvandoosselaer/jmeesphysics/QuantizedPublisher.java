@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.simsilica.es.EntityId;
+import com.simsilica.sim.SimTime;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link PhysicalEntityListener} that only passes the update of a physical entity to a delegate listener when the
+ * quantized transform or velocity of the entity changed. This filters the updates of resting and jittering bodies,
+ * that differ in the last bits of their transform each tick.
+ * <p>
+ * The location and linear velocity are quantized with their quantum, the rotation components with the rotation
+ * quantum. An update is passed when the quantized value differs more than the threshold from the last passed value:
+ * the distance for the location and velocity, the angle in radians for the rotation. A quantum or threshold of 0
+ * disables it. Added and removed entities are always passed.
+ * <p>
+ * The number of suppressed updates is counted, to tune the trade-off between the number of updates and precision.
+ */
+public class QuantizedPublisher implements PhysicalEntityListener {
+
+    private final PhysicalEntityListener delegate;
+    @Getter
+    @Setter
+    private float positionQuantum = 0.001f;
+    @Getter
+    @Setter
+    private float positionThreshold;
+    @Getter
+    @Setter
+    private float rotationQuantum = 0.001f;
+    @Getter
+    @Setter
+    private float rotationThreshold;
+    @Getter
+    @Setter
+    private float velocityQuantum = 0.01f;
+    @Getter
+    @Setter
+    private float velocityThreshold;
+    /**
+     * The number of updates that are passed to the delegate.
+     */
+    @Getter
+    private long publishedUpdates;
+    /**
+     * The number of updates that are suppressed.
+     */
+    @Getter
+    private long suppressedUpdates;
+
+    private final Map<EntityId, Entry> entries = new HashMap<>();
+    private final Vector3f location = new Vector3f();
+    private final Quaternion rotation = new Quaternion();
+    private final Vector3f velocity = new Vector3f();
+
+    public QuantizedPublisher(@NonNull PhysicalEntityListener delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Reset the published and suppressed update counters.
+     */
+    public void resetCounters() {
+        publishedUpdates = 0;
+        suppressedUpdates = 0;
+    }
+
+    @Override
+    public void startFrame(SimTime time) {
+        delegate.startFrame(time);
+    }
+
+    @Override
+    public void physicsStepped(SimTime time) {
+        delegate.physicsStepped(time);
+    }
+
+    @Override
+    public void physicalEntityAdded(PhysicalEntity physicalEntity) {
+        Entry entry = new Entry();
+        quantize(physicalEntity);
+        entry.set(location, rotation, velocity);
+        entries.put(physicalEntity.getEntityId(), entry);
+        delegate.physicalEntityAdded(physicalEntity);
+    }
+
+    @Override
+    public void physicalEntityUpdated(PhysicalEntity physicalEntity) {
+        quantize(physicalEntity);
+        Entry entry = entries.get(physicalEntity.getEntityId());
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(physicalEntity.getEntityId(), entry);
+        } else if (!entry.isChanged()) {
+            suppressedUpdates++;
+            return;
+        }
+        entry.set(location, rotation, velocity);
+        publishedUpdates++;
+        delegate.physicalEntityUpdated(physicalEntity);
+    }
+
+    @Override
+    public void physicalEntityRemoved(PhysicalEntity physicalEntity) {
+        entries.remove(physicalEntity.getEntityId());
+        delegate.physicalEntityRemoved(physicalEntity);
+    }
+
+    @Override
+    public void endFrame(SimTime time) {
+        delegate.endFrame(time);
+    }
+
+    private void quantize(PhysicalEntity physicalEntity) {
+        Vector3f l = physicalEntity.getLocation();
+        location.set(quantize(l.x, positionQuantum), quantize(l.y, positionQuantum), quantize(l.z, positionQuantum));
+
+        Quaternion r = physicalEntity.getRotation();
+        rotation.set(quantize(r.getX(), rotationQuantum), quantize(r.getY(), rotationQuantum),
+                quantize(r.getZ(), rotationQuantum), quantize(r.getW(), rotationQuantum));
+
+        if (physicalEntity instanceof RigidBodyEntity) {
+            ((RigidBodyEntity) physicalEntity).getLinearVelocity(velocity);
+            velocity.set(quantize(velocity.x, velocityQuantum), quantize(velocity.y, velocityQuantum), quantize(velocity.z, velocityQuantum));
+        } else {
+            velocity.zero();
+        }
+    }
+
+    private static float quantize(float value, float quantum) {
+        return quantum > 0 ? Math.round(value / quantum) * quantum : value;
+    }
+
+    private class Entry {
+
+        private final Vector3f location = new Vector3f();
+        private final Quaternion rotation = new Quaternion();
+        private final Vector3f velocity = new Vector3f();
+
+        private boolean isChanged() {
+            QuantizedPublisher publisher = QuantizedPublisher.this;
+            if (isChanged(location, publisher.location, positionThreshold)) {
+                return true;
+            }
+            if (isChanged(velocity, publisher.velocity, velocityThreshold)) {
+                return true;
+            }
+            if (rotation.equals(publisher.rotation)) {
+                return false;
+            }
+            if (rotationThreshold <= 0) {
+                return true;
+            }
+            // the quantized rotations aren't normalized
+            float norms = rotation.norm() * publisher.rotation.norm();
+            float dot = norms > 0 ? Math.abs(rotation.dot(publisher.rotation)) / FastMath.sqrt(norms) : 1f;
+            return 2f * FastMath.acos(Math.min(1f, dot)) > rotationThreshold;
+        }
+
+        private boolean isChanged(Vector3f published, Vector3f current, float threshold) {
+            if (published.equals(current)) {
+                return false;
+            }
+            return threshold <= 0 || published.distanceSquared(current) > threshold * threshold;
+        }
+
+        private void set(Vector3f location, Quaternion rotation, Vector3f velocity) {
+            this.location.set(location);
+            this.rotation.set(rotation);
+            this.velocity.set(velocity);
+        }
+
+    }
+
+}
@@ -30,10 +30,12 @@
 package com.rvandoosselaer.jmeesphysics;
 
 import com.jme3.bullet.collision.shapes.CollisionShape;
+import com.jme3.bullet.collision.shapes.EmptyShape;
 import com.jme3.bullet.objects.PhysicsRigidBody;
 import com.jme3.math.Quaternion;
 import com.jme3.math.Vector3f;
 import com.rvandoosselaer.jmeesphysics.es.Mass;
+import com.rvandoosselaer.jmeesphysics.es.PhysicalShape;
 import com.simsilica.es.EntityId;
 import lombok.ToString;
 
@@ -43,13 +45,38 @@ import lombok.ToString;
 @ToString(onlyExplicitlyIncluded = true)
 public class RigidBodyEntity extends PhysicsRigidBody implements PhysicalEntity<PhysicsRigidBody> {
 
+    // the placeholder shape of bodies that are waiting for their collision shape
+    private static final CollisionShape PENDING_SHAPE = new EmptyShape(false);
+
     @ToString.Include
     private final EntityId entityId;
+    private final PhysicalShape physicalShape;
     private PhysicalEntityDriver driver;
+    // true when the body is waiting for its collision shape and can't be added to the physics space yet
+    private boolean pending;
+    // the group when the static body is merged in a shared compound body
+    private StaticBodyGroup staticGroup;
+    // the origin of the physics space, or null when the physics space is in world coordinates
+    private WorldOrigin origin;
 
     public RigidBodyEntity(EntityId entityId, CollisionShape shape, Mass mass) {
+        this(entityId, null, shape, mass);
+    }
+
+    public RigidBodyEntity(EntityId entityId, PhysicalShape physicalShape, CollisionShape shape, Mass mass) {
         super(shape, mass.getMass());
         this.entityId = entityId;
+        this.physicalShape = physicalShape;
+    }
+
+    /**
+     * Creates a static body with a placeholder shape for an entity that is waiting for its collision shape.
+     */
+    RigidBodyEntity(EntityId entityId, PhysicalShape physicalShape) {
+        super(PENDING_SHAPE, 0);
+        this.entityId = entityId;
+        this.physicalShape = physicalShape;
+        this.pending = true;
     }
 
     @Override
@@ -64,7 +91,25 @@ public class RigidBodyEntity extends PhysicsRigidBody implements PhysicalEntity<
 
     @Override
     public Vector3f getLocation() {
-        return getPhysicsLocation();
+        Vector3f location = getPhysicsLocation();
+        return origin != null ? origin.toWorld(location, location) : location;
+    }
+
+    /**
+     * The world location of the entity in double precision.
+     *
+     * @param store an array of at least 3 elements
+     * @return the store
+     */
+    public double[] getWorldLocation(double[] store) {
+        Vector3f location = getPhysicsLocation();
+        if (origin != null) {
+            return origin.toWorld(location, store);
+        }
+        store[0] = location.x;
+        store[1] = location.y;
+        store[2] = location.z;
+        return store;
     }
 
     @Override
@@ -72,6 +117,16 @@ public class RigidBodyEntity extends PhysicsRigidBody implements PhysicalEntity<
         return getPhysicsRotation();
     }
 
+    /**
+     * The physical shape component holding the key of the collision shape of the body, or null when the body isn't
+     * created from a physical shape component.
+     *
+     * @return the physical shape or null
+     */
+    public PhysicalShape getPhysicalShape() {
+        return physicalShape;
+    }
+
     @Override
     public PhysicalEntityDriver getPhysicalEntityDriver() {
         return driver;
@@ -92,4 +147,29 @@ public class RigidBodyEntity extends PhysicsRigidBody implements PhysicalEntity<
         this.driver = driver;
     }
 
+    boolean isPending() {
+        return pending;
+    }
+
+    StaticBodyGroup getStaticGroup() {
+        return staticGroup;
+    }
+
+    void setStaticGroup(StaticBodyGroup staticGroup) {
+        this.staticGroup = staticGroup;
+    }
+
+    void setOrigin(WorldOrigin origin) {
+        this.origin = origin;
+    }
+
+    /**
+     * Set the collision shape and the mass of a body that was waiting for its collision shape.
+     */
+    void resolve(CollisionShape shape, Mass mass) {
+        setCollisionShape(shape);
+        setMass(mass.getMass());
+        pending = false;
+    }
+
 }
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * A ring buffer of the states of the physics world at the start of the last ticks, together with the time per frame,
+ * the solver iterations, the substeps and the commands of each tick.
+ */
+class RollbackBuffer {
+
+    private final PhysicsState[] states;
+    private final float[] tpfs;
+    private final int[] solverIterations;
+    private final int[] substeps;
+    // the commands by tick, commands can be added for future ticks
+    private final TreeMap<Long, List<PhysicsCommand>> commands = new TreeMap<>();
+
+    RollbackBuffer(int size) {
+        states = new PhysicsState[size];
+        tpfs = new float[size];
+        solverIterations = new int[size];
+        substeps = new int[size];
+        for (int i = 0; i < size; i++) {
+            states[i] = new PhysicsState();
+            states[i].setTick(-1);
+        }
+    }
+
+    int size() {
+        return states.length;
+    }
+
+    /**
+     * Returns the state to capture the start of the tick in. The state and the commands of the tick that is pushed
+     * out of the buffer are discarded.
+     */
+    PhysicsState record(long tick, float tpf, int solverIterations, int substeps) {
+        int index = getIndex(tick);
+        tpfs[index] = tpf;
+        this.solverIterations[index] = solverIterations;
+        this.substeps[index] = substeps;
+        commands.headMap(tick - states.length, true).clear();
+        return states[index];
+    }
+
+    /**
+     * Returns the state at the start of the tick, or null when the tick isn't in the buffer.
+     */
+    PhysicsState getState(long tick) {
+        if (tick < 0) {
+            return null;
+        }
+        PhysicsState state = states[getIndex(tick)];
+        return state.getTick() == tick ? state : null;
+    }
+
+    float getTpf(long tick) {
+        return tpfs[getIndex(tick)];
+    }
+
+    int getSolverIterations(long tick) {
+        return solverIterations[getIndex(tick)];
+    }
+
+    int getSubsteps(long tick) {
+        return substeps[getIndex(tick)];
+    }
+
+    void addCommand(long tick, PhysicsCommand command) {
+        commands.computeIfAbsent(tick, t -> new ArrayList<>()).add(command);
+    }
+
+    List<PhysicsCommand> getCommands(long tick) {
+        return commands.getOrDefault(tick, Collections.emptyList());
+    }
+
+    private int getIndex(long tick) {
+        return (int) (tick % states.length);
+    }
+
+}
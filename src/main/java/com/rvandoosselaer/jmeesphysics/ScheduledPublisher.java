@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.simsilica.es.EntityId;
+import com.simsilica.sim.SimTime;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link PhysicalEntityListener} that passes the updates of the physical entities to a delegate listener within a
+ * budget of updates per tick. Added and removed entities are always passed.
+ * <p>
+ * Entities that are relevant to an observer of the {@link InterestManager}, entities that move faster than the fast
+ * speed and entities that changed their active state are passed first. The remaining budget goes to the entities with
+ * the largest accumulated error: the distance and rotation difference with the last passed transform, weighted by the
+ * number of ticks since the last update. Entities that didn't move since their last update are never passed.
+ * <p>
+ * Usage:
+ * <pre>{@code
+ * bulletSystem.addPhysicalEntityListener(new ScheduledPublisher(new PositionPublisher(entityData), 200));
+ * }</pre>
+ */
+public class ScheduledPublisher implements PhysicalEntityListener {
+
+    private static final float PRIORITY = Float.MAX_VALUE;
+
+    private final PhysicalEntityListener delegate;
+    /**
+     * The maximum number of updates that are passed to the delegate each tick.
+     */
+    @Getter
+    @Setter
+    private int budget;
+    /**
+     * The speed above which an entity is updated every tick.
+     */
+    @Getter
+    @Setter
+    private float fastSpeed = 10f;
+    /**
+     * The error of a full rotation difference, compared to the distance a body moved.
+     */
+    @Getter
+    @Setter
+    private float rotationWeight = 1f;
+    /**
+     * An optional interest manager. Entities that are relevant to an observer are updated every tick.
+     */
+    @Getter
+    @Setter
+    private InterestManager interestManager;
+
+    private final Map<EntityId, Entry> entries = new HashMap<>();
+    private final List<Entry> candidates = new ArrayList<>();
+    private final Vector3f velocity = new Vector3f();
+    @Getter
+    private long publishedUpdates;
+    @Getter
+    private long deferredUpdates;
+
+    public ScheduledPublisher(@NonNull PhysicalEntityListener delegate, int budget) {
+        this.delegate = delegate;
+        this.budget = budget;
+    }
+
+    @Override
+    public void startFrame(SimTime time) {
+        candidates.clear();
+        delegate.startFrame(time);
+    }
+
+    @Override
+    public void physicsStepped(SimTime time) {
+        delegate.physicsStepped(time);
+    }
+
+    @Override
+    public void physicalEntityAdded(PhysicalEntity physicalEntity) {
+        Entry entry = new Entry(physicalEntity);
+        entry.published(physicalEntity);
+        entries.put(physicalEntity.getEntityId(), entry);
+        delegate.physicalEntityAdded(physicalEntity);
+    }
+
+    @Override
+    public void physicalEntityUpdated(PhysicalEntity physicalEntity) {
+        Entry entry = entries.get(physicalEntity.getEntityId());
+        if (entry == null) {
+            entry = new Entry(physicalEntity);
+            entries.put(physicalEntity.getEntityId(), entry);
+            entry.priority = PRIORITY;
+        } else {
+            entry.ticks++;
+            entry.priority = getPriority(entry, physicalEntity);
+        }
+        if (entry.priority > 0) {
+            candidates.add(entry);
+        }
+    }
+
+    @Override
+    public void physicalEntityRemoved(PhysicalEntity physicalEntity) {
+        Entry entry = entries.remove(physicalEntity.getEntityId());
+        if (entry != null) {
+            // skip a pending update
+            entry.physicalEntity = null;
+        }
+        delegate.physicalEntityRemoved(physicalEntity);
+    }
+
+    @Override
+    public void endFrame(SimTime time) {
+        if (candidates.size() > budget) {
+            candidates.sort((e1, e2) -> Float.compare(e2.priority, e1.priority));
+        }
+        int count = 0;
+        for (Entry entry : candidates) {
+            if (entry.physicalEntity == null) {
+                continue;
+            }
+            if (count == budget) {
+                deferredUpdates++;
+                continue;
+            }
+            entry.published(entry.physicalEntity);
+            delegate.physicalEntityUpdated(entry.physicalEntity);
+            count++;
+        }
+        publishedUpdates += count;
+        candidates.clear();
+
+        delegate.endFrame(time);
+    }
+
+    private float getPriority(Entry entry, PhysicalEntity physicalEntity) {
+        if (physicalEntity instanceof RigidBodyEntity) {
+            RigidBodyEntity rigidBodyEntity = (RigidBodyEntity) physicalEntity;
+            if (rigidBodyEntity.isActive() != entry.active) {
+                return PRIORITY;
+            }
+            if (rigidBodyEntity.getLinearVelocity(velocity).lengthSquared() > fastSpeed * fastSpeed) {
+                return PRIORITY;
+            }
+        }
+
+        Vector3f location = physicalEntity.getLocation();
+        Quaternion rotation = physicalEntity.getRotation();
+        float error = location.distance(entry.location) + rotationWeight * (1f - Math.abs(rotation.dot(entry.rotation)));
+        if (error == 0) {
+            return 0;
+        }
+        if (interestManager != null && interestManager.isRelevant(physicalEntity.getEntityId())) {
+            return PRIORITY;
+        }
+        return error * entry.ticks;
+    }
+
+    private static class Entry {
+
+        private PhysicalEntity physicalEntity;
+        private final Vector3f location = new Vector3f();
+        private final Quaternion rotation = new Quaternion();
+        private boolean active;
+        private int ticks;
+        private float priority;
+
+        private Entry(PhysicalEntity physicalEntity) {
+            this.physicalEntity = physicalEntity;
+        }
+
+        private void published(PhysicalEntity physicalEntity) {
+            location.set(physicalEntity.getLocation());
+            rotation.set(physicalEntity.getRotation());
+            active = physicalEntity instanceof RigidBodyEntity && ((RigidBodyEntity) physicalEntity).isActive();
+            ticks = 0;
+        }
+
+    }
+
+}
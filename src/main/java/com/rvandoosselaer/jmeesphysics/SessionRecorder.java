@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.rvandoosselaer.jmeesphysics.es.Impulse;
+import com.simsilica.es.EntityId;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records the input of the {@link BulletSystem} in an append-only memory-mapped log: the entities that are added and
+ * removed, the warps, the impulses, the state of the drivers and the time per frame, solver iterations and substeps of
+ * each physics tick. The log can be replayed headless at full speed with a {@link SessionReplay}, to reproduce and
+ * profile a session offline.
+ * <p>
+ * Set the recorder on the BulletSystem using {@link BulletSystem#setSessionRecorder(SessionRecorder)}. The recorder
+ * should only be used from the thread running the BulletSystem.
+ */
+@Slf4j
+public class SessionRecorder implements Closeable {
+
+    static final int MAGIC = 0x4a535231;
+    // the unwritten part of a mapped segment is zero filled, a zero type marks the end of the log after a crash
+    static final byte END = 0;
+    static final byte TICK = 1;
+    static final byte SPAWN = 2;
+    static final byte WARP = 3;
+    static final byte REMOVE = 4;
+    static final byte IMPULSE = 5;
+    static final byte DRIVER = 6;
+    static final byte SOLVER = 7;
+
+    private static final int SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    @Getter
+    private final Path file;
+    private final FileChannel channel;
+    // the mapped segment of the file that is written
+    private MappedByteBuffer buffer;
+    private long segmentStart;
+    @Getter
+    private long ticks;
+
+    public SessionRecorder(@NonNull Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        map(0, SEGMENT_SIZE);
+        buffer.putInt(MAGIC);
+    }
+
+    /**
+     * Returns the number of bytes written to the log.
+     *
+     * @return the size of the log
+     */
+    public long getSize() {
+        return segmentStart + buffer.position();
+    }
+
+    void recordTick(float tpf, int solverIterations, int substeps) {
+        // the solver settings of the tick, they change when the solver is auto tuned
+        ensure(5 + 5);
+        buffer.put(SOLVER).putShort((short) solverIterations).putShort((short) substeps);
+        buffer.put(TICK).putFloat(tpf);
+        ticks++;
+    }
+
+    void recordSpawn(EntityId entityId, float mass, String shapeId, Vector3f location, Quaternion rotation) {
+        byte[] shape = shapeId.getBytes(StandardCharsets.UTF_8);
+        if (shape.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Shape id of " + entityId + " is too long, " + shape.length + " bytes");
+        }
+        ensure(1 + 8 + 4 + 2 + shape.length + 28);
+        buffer.put(SPAWN).putLong(entityId.getId()).putFloat(mass).putShort((short) shape.length).put(shape);
+        putTransform(location, rotation);
+    }
+
+    void recordWarp(EntityId entityId, Vector3f location, Quaternion rotation) {
+        ensure(1 + 8 + 28);
+        buffer.put(WARP).putLong(entityId.getId());
+        putTransform(location, rotation);
+    }
+
+    void recordRemove(EntityId entityId) {
+        ensure(1 + 8);
+        buffer.put(REMOVE).putLong(entityId.getId());
+    }
+
+    void recordImpulse(EntityId entityId, Impulse impulse) {
+        ensure(1 + 8 + 1 + 24);
+        buffer.put(IMPULSE).putLong(entityId.getId());
+        Vector3f linear = impulse.getLinearVelocity();
+        Vector3f angular = impulse.getAngularVelocity();
+        buffer.put((byte) ((linear != null ? 1 : 0) | (angular != null ? 2 : 0)));
+        if (linear != null) {
+            buffer.putFloat(linear.x).putFloat(linear.y).putFloat(linear.z);
+        }
+        if (angular != null) {
+            buffer.putFloat(angular.x).putFloat(angular.y).putFloat(angular.z);
+        }
+    }
+
+    void recordDriverState(EntityId entityId, byte[] state) {
+        ensure(1 + 8 + 4 + state.length);
+        buffer.put(DRIVER).putLong(entityId.getId()).putInt(state.length).put(state);
+    }
+
+    /**
+     * Flush the log and truncate the file to the recorded size.
+     *
+     * @throws IOException when the file can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        long size = getSize();
+        buffer.force();
+        buffer = null;
+        channel.truncate(size);
+        channel.close();
+        log.debug("Recorded {} ticks in {} ({} bytes)", ticks, file, size);
+    }
+
+    private void putTransform(Vector3f location, Quaternion rotation) {
+        buffer.putFloat(location.x).putFloat(location.y).putFloat(location.z);
+        buffer.putFloat(rotation.getX()).putFloat(rotation.getY()).putFloat(rotation.getZ()).putFloat(rotation.getW());
+    }
+
+    /**
+     * Map a new segment when the current segment doesn't have enough space left.
+     */
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        try {
+            buffer.force();
+            map(getSize(), Math.max(SEGMENT_SIZE, bytes));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to extend session log " + file, e);
+        }
+    }
+
+    private void map(long position, int size) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        segmentStart = position;
+    }
+
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.rvandoosselaer.jmeesphysics.es.Impulse;
+import com.rvandoosselaer.jmeesphysics.es.Mass;
+import com.rvandoosselaer.jmeesphysics.es.PhysicalShape;
+import com.rvandoosselaer.jmeesphysics.es.WarpPosition;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import com.simsilica.sim.SimTime;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Replays a log recorded by a {@link SessionRecorder} through a {@link BulletSystem} at full speed. The recorded
+ * entities are created with their original entity id in the entity data of the BulletSystem, so the BulletSystem
+ * should use an empty entity data. The log is read through a memory-mapped file.
+ * <p>
+ * The recorded driver state is only restored when the replayed entity has a driver that supports
+ * {@link PhysicalEntityDriver#restoreState(byte[])}.
+ * <p>
+ * The ticks are replayed with the recorded solver iterations and substeps, so a session that was auto tuned replays
+ * with the same settings.
+ * <p>
+ * A log that wasn't closed, eg. after a crash, is replayed up to the last record that was written.
+ */
+public class SessionReplay {
+
+    private final ByteBuffer buffer;
+    private final SimTime time = new SimTime();
+    private long simTime;
+    @Getter
+    private long ticks;
+
+    public SessionReplay(@NonNull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (buffer.remaining() < 4 || buffer.getInt() != SessionRecorder.MAGIC) {
+            throw new IllegalArgumentException("Invalid session log " + file);
+        }
+        time.update(simTime);
+    }
+
+    /**
+     * Replay the remaining ticks of the log.
+     *
+     * @param bulletSystem an initialized and started bullet system
+     * @return the time in nanoseconds of each replayed tick
+     */
+    public long[] replay(BulletSystem bulletSystem) {
+        long[] durations = new long[1024];
+        int count = 0;
+        long duration;
+        while ((duration = step(bulletSystem)) >= 0) {
+            if (count == durations.length) {
+                durations = Arrays.copyOf(durations, count * 2);
+            }
+            durations[count++] = duration;
+        }
+        return Arrays.copyOf(durations, count);
+    }
+
+    /**
+     * Replay the next tick of the log.
+     *
+     * @param bulletSystem an initialized and started bullet system
+     * @return the time in nanoseconds of the BulletSystem update, or -1 when the end of the log is reached
+     */
+    public long step(BulletSystem bulletSystem) {
+        EntityData entityData = bulletSystem.getEntityData();
+        while (buffer.hasRemaining()) {
+            byte type = buffer.get();
+            switch (type) {
+                case SessionRecorder.END:
+                    // the zero filled tail of a log that wasn't closed
+                    buffer.position(buffer.limit());
+                    return -1;
+                case SessionRecorder.TICK:
+                    float tpf = buffer.getFloat();
+                    simTime += (long) (tpf * 1000000000L);
+                    time.update(simTime);
+                    long start = System.nanoTime();
+                    bulletSystem.update(time, tpf);
+                    ticks++;
+                    return System.nanoTime() - start;
+                case SessionRecorder.SOLVER:
+                    bulletSystem.setEffectiveSolverSettings(buffer.getShort() & 0xFFFF, buffer.getShort() & 0xFFFF);
+                    break;
+                case SessionRecorder.SPAWN:
+                    EntityId entityId = new EntityId(buffer.getLong());
+                    float mass = buffer.getFloat();
+                    byte[] shape = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(shape);
+                    entityData.setComponents(entityId, new Mass(mass), new PhysicalShape(new String(shape, StandardCharsets.UTF_8)),
+                            new WarpPosition(getVector(), getRotation()));
+                    break;
+                case SessionRecorder.WARP:
+                    entityData.setComponent(new EntityId(buffer.getLong()), new WarpPosition(getVector(), getRotation()));
+                    break;
+                case SessionRecorder.REMOVE:
+                    entityData.removeEntity(new EntityId(buffer.getLong()));
+                    break;
+                case SessionRecorder.IMPULSE:
+                    EntityId impulseId = new EntityId(buffer.getLong());
+                    byte flags = buffer.get();
+                    Vector3f linear = (flags & 1) != 0 ? getVector() : null;
+                    Vector3f angular = (flags & 2) != 0 ? getVector() : null;
+                    entityData.setComponent(impulseId, new Impulse(linear, angular));
+                    break;
+                case SessionRecorder.DRIVER:
+                    EntityId driverId = new EntityId(buffer.getLong());
+                    byte[] state = new byte[buffer.getInt()];
+                    buffer.get(state);
+                    RigidBodyEntity body = bulletSystem.getPhysicalEntity(driverId);
+                    if (body != null && body.getPhysicalEntityDriver() != null) {
+                        body.getPhysicalEntityDriver().restoreState(state);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Invalid session log record " + type + " at " + (buffer.position() - 1));
+            }
+        }
+        return -1;
+    }
+
+    private Vector3f getVector() {
+        return new Vector3f(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+    }
+
+    private Quaternion getRotation() {
+        return new Quaternion(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+    }
+
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * A uniform grid that indexes integer ids by their axis aligned bounding box. An id is added to every cell its bounding
+ * box overlaps. The cells are kept and reused when the grid is cleared, so a grid can be rebuilt each frame without
+ * creating garbage. Ids should be small non-negative numbers, eg. indices in an array.
+ */
+public class SpatialGrid {
+
+    @Getter
+    private final float cellSize;
+    private final Map<Long, IntList> cells = new HashMap<>();
+    // the last query an id was reported in, to report an id only once per query
+    private int[] stamps = new int[64];
+    private int stamp;
+
+    public SpatialGrid(float cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Invalid cell size " + cellSize);
+        }
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Remove all ids from the grid. Cells that stayed empty since the previous clear are released.
+     */
+    public void clear() {
+        Iterator<IntList> iterator = cells.values().iterator();
+        while (iterator.hasNext()) {
+            IntList cell = iterator.next();
+            if (cell.size == 0) {
+                iterator.remove();
+            }
+            cell.size = 0;
+        }
+    }
+
+    /**
+     * Add an id to the cells overlapping the bounding box.
+     */
+    public void insert(int id, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Invalid id " + id);
+        }
+        int x0 = getCell(minX), y0 = getCell(minY), z0 = getCell(minZ);
+        int x1 = getCell(maxX), y1 = getCell(maxY), z1 = getCell(maxZ);
+        for (int x = x0; x <= x1; x++) {
+            for (int y = y0; y <= y1; y++) {
+                for (int z = z0; z <= z1; z++) {
+                    cells.computeIfAbsent(getKey(x, y, z), k -> new IntList()).add(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove an id from the cells overlapping the bounding box. The bounding box should be the bounding box the id was
+     * inserted with. Cells that become empty are released.
+     */
+    public void remove(int id, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        int x0 = getCell(minX), y0 = getCell(minY), z0 = getCell(minZ);
+        int x1 = getCell(maxX), y1 = getCell(maxY), z1 = getCell(maxZ);
+        for (int x = x0; x <= x1; x++) {
+            for (int y = y0; y <= y1; y++) {
+                for (int z = z0; z <= z1; z++) {
+                    long key = getKey(x, y, z);
+                    IntList cell = cells.get(key);
+                    if (cell != null && cell.remove(id) && cell.size == 0) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Move an id from the cells overlapping the old bounding box to the cells overlapping the new bounding box. Nothing
+     * changes when both bounding boxes overlap the same cells, so a grid can be updated incrementally.
+     */
+    public void move(int id, float oldMinX, float oldMinY, float oldMinZ, float oldMaxX, float oldMaxY, float oldMaxZ,
+                     float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        if (getCell(oldMinX) == getCell(minX) && getCell(oldMinY) == getCell(minY) && getCell(oldMinZ) == getCell(minZ)
+                && getCell(oldMaxX) == getCell(maxX) && getCell(oldMaxY) == getCell(maxY) && getCell(oldMaxZ) == getCell(maxZ)) {
+            return;
+        }
+        remove(id, oldMinX, oldMinY, oldMinZ, oldMaxX, oldMaxY, oldMaxZ);
+        insert(id, minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    /**
+     * Report the ids of the cells overlapping the bounding box. Each id is reported once. The ids are candidates, their
+     * bounding box isn't necessarily overlapping the queried bounding box. When the bounding box covers more cells than
+     * there are occupied cells, the occupied cells are visited instead of the cells of the bounding box.
+     */
+    public void query(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, IntConsumer consumer) {
+        if (++stamp == 0) {
+            // the stamp wrapped around
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+
+        int x0 = getCell(minX), y0 = getCell(minY), z0 = getCell(minZ);
+        int x1 = getCell(maxX), y1 = getCell(maxY), z1 = getCell(maxZ);
+        long queryCells = (x1 - x0 + 1L) * (y1 - y0 + 1L) * (z1 - z0 + 1L);
+        if (queryCells > cells.size()) {
+            for (Map.Entry<Long, IntList> entry : cells.entrySet()) {
+                long key = entry.getKey();
+                int x = getX(key), y = getY(key), z = getZ(key);
+                if (x >= x0 && x <= x1 && y >= y0 && y <= y1 && z >= z0 && z <= z1) {
+                    report(entry.getValue(), consumer);
+                }
+            }
+            return;
+        }
+
+        for (int x = x0; x <= x1; x++) {
+            for (int y = y0; y <= y1; y++) {
+                for (int z = z0; z <= z1; z++) {
+                    IntList cell = cells.get(getKey(x, y, z));
+                    if (cell != null) {
+                        report(cell, consumer);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Report the ids of the cell that weren't reported yet in the current query.
+     */
+    private void report(IntList cell, IntConsumer consumer) {
+        for (int i = 0; i < cell.size; i++) {
+            int id = cell.values[i];
+            if (id >= stamps.length) {
+                stamps = Arrays.copyOf(stamps, Math.max(id + 1, stamps.length * 2));
+            }
+            if (stamps[id] != stamp) {
+                stamps[id] = stamp;
+                consumer.accept(id);
+            }
+        }
+    }
+
+    private int getCell(float value) {
+        return (int) Math.floor(value / cellSize);
+    }
+
+    private static long getKey(int x, int y, int z) {
+        return ((long) (x & 0x1FFFFF) << 42) | ((long) (y & 0x1FFFFF) << 21) | (z & 0x1FFFFF);
+    }
+
+    // the coordinates are stored in 21 bits, they are shifted to the top of the int and back to restore the sign
+    private static int getX(long key) {
+        return (int) (key >>> 42) << 11 >> 11;
+    }
+
+    private static int getY(long key) {
+        return (int) (key >>> 21 & 0x1FFFFF) << 11 >> 11;
+    }
+
+    private static int getZ(long key) {
+        return (int) (key & 0x1FFFFF) << 11 >> 11;
+    }
+
+    private static class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private boolean remove(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    // the order of the ids isn't relevant
+                    values[i] = values[--size];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
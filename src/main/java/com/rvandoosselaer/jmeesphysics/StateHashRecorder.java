@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.bullet.objects.PhysicsRigidBody;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.simsilica.sim.SimTime;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A {@link PhysicalEntityListener} implementation that computes a hash of the state of the physics world at the end of
+ * each physics tick, to find the tick where replicas of a world diverge. The hash combines the quantized transform and
+ * velocity of every body in entity id order. The hashes of the last ticks are kept in a ring buffer and can be
+ * retrieved as a {@link StateHashRecording}.
+ * <p>
+ * When entity hashes are enabled, the hash of each body is recorded as well, so the diverging entity can be found.
+ */
+public class StateHashRecorder implements PhysicalEntityListener {
+
+    private static final Comparator<PhysicalEntity> ENTITY_ID_ORDER = Comparator.comparingLong(entity -> entity.getEntityId().getId());
+
+    private final BulletSystem bulletSystem;
+    @Getter
+    private final float quantum;
+    @Getter
+    private final boolean entityHashes;
+
+    // the ring buffer of the hashes
+    private final long[] ticks;
+    private final long[] hashes;
+    private final long[][] entityIdRing;
+    private final long[][] entityHashRing;
+    private long count;
+    private long lastTick = -1;
+
+    // the bodies sorted by entity id
+    private final List<PhysicalEntity> entities = new ArrayList<>();
+    private boolean sorted = true;
+    private final Vector3f tmp = new Vector3f();
+
+    @Getter
+    private long lastHashNanos;
+    private long totalHashNanos;
+
+    /**
+     * Create a recorder.
+     *
+     * @param bulletSystem the bullet system
+     * @param size         the number of ticks to keep
+     * @param quantum      the precision of the transforms and velocities in the hash
+     * @param entityHashes true to record the hash of each entity
+     */
+    public StateHashRecorder(@NonNull BulletSystem bulletSystem, int size, float quantum, boolean entityHashes) {
+        if (size < 1 || !(quantum > 0)) {
+            throw new IllegalArgumentException("Invalid size " + size + " or quantum " + quantum);
+        }
+        this.bulletSystem = bulletSystem;
+        this.quantum = quantum;
+        this.entityHashes = entityHashes;
+        this.ticks = new long[size];
+        this.hashes = new long[size];
+        this.entityIdRing = entityHashes ? new long[size][] : null;
+        this.entityHashRing = entityHashes ? new long[size][] : null;
+    }
+
+    @Override
+    public void startFrame(SimTime time) {
+    }
+
+    @Override
+    public void physicalEntityAdded(PhysicalEntity physicalEntity) {
+        entities.add(physicalEntity);
+        sorted = false;
+    }
+
+    @Override
+    public void physicalEntityUpdated(PhysicalEntity physicalEntity) {
+    }
+
+    @Override
+    public void physicalEntityRemoved(PhysicalEntity physicalEntity) {
+        entities.remove(physicalEntity);
+    }
+
+    @Override
+    public void endFrame(SimTime time) {
+        long tick = bulletSystem.getTick();
+        if (tick == lastTick) {
+            // the physics simulation didn't run
+            return;
+        }
+        lastTick = tick;
+
+        long start = System.nanoTime();
+        if (!sorted) {
+            entities.sort(ENTITY_ID_ORDER);
+            sorted = true;
+        }
+
+        int index = (int) (count % ticks.length);
+        long[] ids = null;
+        long[] bodyHashes = null;
+        if (entityHashes) {
+            ids = entityIdRing[index] != null && entityIdRing[index].length == entities.size() ? entityIdRing[index] : new long[entities.size()];
+            bodyHashes = entityHashRing[index] != null && entityHashRing[index].length == entities.size() ? entityHashRing[index] : new long[entities.size()];
+        }
+
+        long hash = mix(0, tick);
+        for (int i = 0; i < entities.size(); i++) {
+            PhysicalEntity entity = entities.get(i);
+            long bodyHash = hash(entity);
+            hash = mix(hash, bodyHash);
+            if (entityHashes) {
+                ids[i] = entity.getEntityId().getId();
+                bodyHashes[i] = bodyHash;
+            }
+        }
+
+        ticks[index] = tick;
+        hashes[index] = hash;
+        if (entityHashes) {
+            entityIdRing[index] = ids;
+            entityHashRing[index] = bodyHashes;
+        }
+        count++;
+
+        lastHashNanos = System.nanoTime() - start;
+        totalHashNanos += lastHashNanos;
+    }
+
+    /**
+     * Returns the hash of the last recorded tick.
+     *
+     * @return the hash
+     */
+    public long getLastHash() {
+        return count == 0 ? 0 : hashes[(int) ((count - 1) % ticks.length)];
+    }
+
+    /**
+     * Returns the average time in nanoseconds the hashing added to a physics tick.
+     *
+     * @return the average time
+     */
+    public long getAverageHashNanos() {
+        return count == 0 ? 0 : totalHashNanos / count;
+    }
+
+    /**
+     * Returns a copy of the recorded hashes, ordered by tick.
+     *
+     * @return the recording
+     */
+    public StateHashRecording getRecording() {
+        int size = (int) Math.min(count, ticks.length);
+        long[] recordedTicks = new long[size];
+        long[] recordedHashes = new long[size];
+        long[][] ids = entityHashes ? new long[size][] : null;
+        long[][] bodyHashes = entityHashes ? new long[size][] : null;
+        for (int i = 0; i < size; i++) {
+            int index = (int) ((count - size + i) % ticks.length);
+            recordedTicks[i] = ticks[index];
+            recordedHashes[i] = hashes[index];
+            if (entityHashes) {
+                ids[i] = Arrays.copyOf(entityIdRing[index], entityIdRing[index].length);
+                bodyHashes[i] = Arrays.copyOf(entityHashRing[index], entityHashRing[index].length);
+            }
+        }
+        return new StateHashRecording(recordedTicks, recordedHashes, ids, bodyHashes);
+    }
+
+    private long hash(PhysicalEntity entity) {
+        long hash = mix(0, entity.getEntityId().getId());
+        Vector3f location = entity.getLocation();
+        Quaternion rotation = entity.getRotation();
+        hash = mix(hash, quantize(location.x), quantize(location.y), quantize(location.z));
+        hash = mix(hash, quantize(rotation.getX()), quantize(rotation.getY()), quantize(rotation.getZ()));
+        hash = mix(hash, quantize(rotation.getW()));
+        if (entity.getPhysicalObject() instanceof PhysicsRigidBody) {
+            PhysicsRigidBody body = (PhysicsRigidBody) entity.getPhysicalObject();
+            body.getLinearVelocity(tmp);
+            hash = mix(hash, quantize(tmp.x), quantize(tmp.y), quantize(tmp.z));
+            body.getAngularVelocity(tmp);
+            hash = mix(hash, quantize(tmp.x), quantize(tmp.y), quantize(tmp.z));
+        }
+        return hash;
+    }
+
+    private long quantize(float value) {
+        return Math.round(value / quantum);
+    }
+
+    private static long mix(long hash, long a, long b, long c) {
+        return mix(mix(mix(hash, a), b), c);
+    }
+
+    private static long mix(long hash, long value) {
+        hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 32);
+    }
+
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.simsilica.es.EntityId;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The world state hashes of consecutive ticks, recorded by a {@link StateHashRecorder}. A recording can optionally hold
+ * the hash of each entity, sorted by entity id, to find the entity that diverged.
+ * <p>
+ * Two recordings of replicas can be compared using {@link #compare(StateHashRecording, StateHashRecording)}, or from
+ * the command line with the paths of the two recordings as arguments.
+ */
+@Getter
+@RequiredArgsConstructor
+public class StateHashRecording {
+
+    private static final int MAGIC = 0x4a534831;
+
+    private final long[] ticks;
+    private final long[] hashes;
+    // the entity ids and hashes of each tick, null when the entity hashes aren't recorded
+    private final long[][] entityIds;
+    private final long[][] entityHashes;
+
+    public int size() {
+        return ticks.length;
+    }
+
+    public boolean hasEntityHashes() {
+        return entityIds != null;
+    }
+
+    /**
+     * Write the recording to a file.
+     *
+     * @param file the file
+     * @throws IOException when the file can't be written
+     */
+    public void write(@NonNull Path file) throws IOException {
+        long size = 9 + 16L * ticks.length;
+        if (hasEntityHashes()) {
+            for (long[] ids : entityIds) {
+                size += 4 + 16L * ids.length;
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(ticks.length).put((byte) (hasEntityHashes() ? 1 : 0));
+            for (int i = 0; i < ticks.length; i++) {
+                buffer.putLong(ticks[i]).putLong(hashes[i]);
+                if (hasEntityHashes()) {
+                    buffer.putInt(entityIds[i].length);
+                    for (int e = 0; e < entityIds[i].length; e++) {
+                        buffer.putLong(entityIds[i][e]).putLong(entityHashes[i][e]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a recording from a file.
+     *
+     * @param file the file
+     * @return the recording
+     * @throws IOException when the file can't be read
+     * @throws IllegalArgumentException when the file doesn't hold a valid recording
+     */
+    public static StateHashRecording read(@NonNull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < 9 || buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Invalid state hash recording " + file);
+            }
+            int size = buffer.getInt();
+            boolean entities = buffer.get() != 0;
+            long[] ticks = new long[size];
+            long[] hashes = new long[size];
+            long[][] entityIds = entities ? new long[size][] : null;
+            long[][] entityHashes = entities ? new long[size][] : null;
+            for (int i = 0; i < size; i++) {
+                ticks[i] = buffer.getLong();
+                hashes[i] = buffer.getLong();
+                if (entities) {
+                    int count = buffer.getInt();
+                    entityIds[i] = new long[count];
+                    entityHashes[i] = new long[count];
+                    for (int e = 0; e < count; e++) {
+                        entityIds[i][e] = buffer.getLong();
+                        entityHashes[i][e] = buffer.getLong();
+                    }
+                }
+            }
+            return new StateHashRecording(ticks, hashes, entityIds, entityHashes);
+        }
+    }
+
+    /**
+     * Compare two recordings and return the first tick where the hashes are different, or null when the hashes of all
+     * ticks that are in both recordings are equal.
+     *
+     * @param a the first recording
+     * @param b the second recording
+     * @return the first divergence or null
+     */
+    public static Divergence compare(@NonNull StateHashRecording a, @NonNull StateHashRecording b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.size() && j < b.size()) {
+            if (a.ticks[i] < b.ticks[j]) {
+                i++;
+            } else if (a.ticks[i] > b.ticks[j]) {
+                j++;
+            } else if (a.hashes[i] == b.hashes[j]) {
+                i++;
+                j++;
+            } else {
+                EntityId entityId = a.hasEntityHashes() && b.hasEntityHashes() ?
+                        findEntity(a.entityIds[i], a.entityHashes[i], b.entityIds[j], b.entityHashes[j]) : null;
+                return new Divergence(a.ticks[i], entityId);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the first entity with a different hash or that is only present in one of the sorted lists.
+     */
+    private static EntityId findEntity(long[] idsA, long[] hashesA, long[] idsB, long[] hashesB) {
+        int i = 0;
+        int j = 0;
+        while (i < idsA.length && j < idsB.length) {
+            if (idsA[i] != idsB[j]) {
+                return new EntityId(Math.min(idsA[i], idsB[j]));
+            }
+            if (hashesA[i] != hashesB[j]) {
+                return new EntityId(idsA[i]);
+            }
+            i++;
+            j++;
+        }
+        if (i < idsA.length) {
+            return new EntityId(idsA[i]);
+        }
+        return j < idsB.length ? new EntityId(idsB[j]) : null;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: StateHashRecording <recording> <recording>");
+            System.exit(2);
+        }
+
+        StateHashRecording a = read(Paths.get(args[0]));
+        StateHashRecording b = read(Paths.get(args[1]));
+        Divergence divergence = compare(a, b);
+        if (divergence == null) {
+            System.out.println("No divergence found in " + a.size() + " and " + b.size() + " ticks");
+        } else {
+            System.out.println("Diverged at tick " + divergence.getTick() + (divergence.getEntityId() != null ? " on " + divergence.getEntityId() : ""));
+            System.exit(1);
+        }
+    }
+
+    /**
+     * The first tick where two recordings are different, and the first entity that is different when the entity
+     * hashes are recorded.
+     */
+    @Getter
+    @ToString
+    @RequiredArgsConstructor
+    public static class Divergence {
+        private final long tick;
+        private final EntityId entityId;
+    }
+
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.bullet.collision.shapes.CompoundCollisionShape;
+import com.jme3.bullet.objects.PhysicsRigidBody;
+import com.jme3.math.Matrix3f;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.simsilica.es.EntityId;
+import lombok.ToString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A static rigidbody with a compound collision shape holding the collision shapes of multiple static entities. Static
+ * entities are grouped by the cell of the grid they are located in and by their collision filter. Use
+ * {@link #getEntityId(int)} to retrieve the entity of a child shape of a contact or a query result.
+ */
+@ToString(onlyExplicitlyIncluded = true)
+public class StaticBodyGroup extends PhysicsRigidBody {
+
+    @ToString.Include
+    private final int x;
+    @ToString.Include
+    private final int z;
+    // the static entities of the group, the index is the index of the child shape in the compound shape
+    private final List<RigidBodyEntity> members = new ArrayList<>();
+
+    StaticBodyGroup(int x, int z, Vector3f origin, int collisionGroup, int collideWithGroups) {
+        super(new CompoundCollisionShape(), 0);
+        this.x = x;
+        this.z = z;
+        setPhysicsLocation(origin);
+        setCollisionGroup(collisionGroup);
+        setCollideWithGroups(collideWithGroups);
+    }
+
+    /**
+     * Returns the entity of a child shape of the compound shape, or null when the index is invalid.
+     *
+     * @param childIndex the index of the child shape
+     * @return the entity id or null
+     */
+    public EntityId getEntityId(int childIndex) {
+        return childIndex >= 0 && childIndex < members.size() ? members.get(childIndex).getEntityId() : null;
+    }
+
+    /**
+     * Returns the number of entities in the group.
+     *
+     * @return the number of entities
+     */
+    public int size() {
+        return members.size();
+    }
+
+    int getX() {
+        return x;
+    }
+
+    int getZ() {
+        return z;
+    }
+
+    void add(RigidBodyEntity body) {
+        members.add(body);
+    }
+
+    void remove(RigidBodyEntity body) {
+        members.remove(body);
+    }
+
+    /**
+     * Rebuild the compound shape using the collision shapes and the transforms of the members.
+     */
+    void rebuild() {
+        CompoundCollisionShape shape = new CompoundCollisionShape(Math.max(members.size(), 1));
+        Vector3f origin = getPhysicsLocation();
+        for (RigidBodyEntity member : members) {
+            Vector3f offset = member.getPhysicsLocation().subtractLocal(origin);
+            Quaternion rotation = member.getPhysicsRotation();
+            shape.addChildShape(member.getCollisionShape(), offset, rotation.toRotationMatrix(new Matrix3f()));
+        }
+        setCollisionShape(shape);
+    }
+
+}
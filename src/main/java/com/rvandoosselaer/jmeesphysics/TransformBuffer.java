@@ -0,0 +1,338 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.simsilica.es.EntityId;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An off-heap, double buffered store of the transforms of the physical entities. The {@link BulletSystem} writes the
+ * transforms of all bodies in the back buffer each physics tick and publishes it with a new sequence number. Other
+ * threads read the published buffer directly, without allocating a component or change event per entity.
+ * <p>
+ * Each body has a dense slot: the slots 0 to size - 1 are in use. When a body is removed, the body in the last slot
+ * takes its place. The transforms are stored as a structure of arrays: the value of a component of a slot is at index
+ * {@code component * capacity + slot} of the transforms of the sequence.
+ * <p>
+ * The writer doesn't wait for the readers: the buffer of a sequence is written again for the sequence after the next
+ * one. A reader that takes longer than a tick should verify the read data with {@link #isValid(long)}, which is a
+ * hint rather than a guarantee:
+ * <pre>{@code
+ * long sequence = transformBuffer.getSequence();
+ * int slot = transformBuffer.getSlot(entityId);
+ * if (transformBuffer.getLocation(sequence, slot, entityId, location) && transformBuffer.isValid(sequence)) {
+ *     ...
+ * }
+ * }</pre>
+ */
+public class TransformBuffer {
+
+    public static final int LOCATION_X = 0;
+    public static final int LOCATION_Y = 1;
+    public static final int LOCATION_Z = 2;
+    public static final int ROTATION_X = 3;
+    public static final int ROTATION_Y = 4;
+    public static final int ROTATION_Z = 5;
+    public static final int ROTATION_W = 6;
+    public static final int COMPONENTS = 7;
+
+    // the frames are replaced when they grow, the array publishes a new frame safely to the readers
+    private final AtomicReferenceArray<Frame> frames = new AtomicReferenceArray<>(2);
+    private final Map<EntityId, Integer> slots = new ConcurrentHashMap<>();
+    private EntityId[] entityIds;
+    private int size;
+    // the last published sequence and the sequence that is being written
+    private volatile long sequence;
+    private volatile long writeSequence;
+
+    public TransformBuffer() {
+        this(256);
+    }
+
+    public TransformBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        frames.set(0, new Frame(capacity));
+        frames.set(1, new Frame(capacity));
+        entityIds = new EntityId[capacity];
+    }
+
+    /**
+     * Returns the last published sequence number, 0 when nothing is published yet.
+     *
+     * @return the sequence
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns true when the buffer of the sequence isn't overwritten, so the data read from it is consistent. The
+     * published sequence is read before the write sequence, so the reads of the data aren't moved after the check in
+     * practice. Java 8 has no load fence in its public API, the memory model doesn't guarantee that the earlier reads
+     * stay before a volatile read, so the result is a hint and not a guarantee.
+     *
+     * @param sequence the sequence that is read
+     * @return true when the data of the sequence is valid
+     */
+    public boolean isValid(long sequence) {
+        long published = this.sequence;
+        return published >= sequence && writeSequence - sequence < 2;
+    }
+
+    /**
+     * Returns the slot of the entity, or -1 when the entity isn't in the buffer. The slot can change when other bodies
+     * are removed, so the entity id of the slot should be verified for the sequence that is read.
+     *
+     * @param entityId the entity
+     * @return the slot or -1
+     */
+    public int getSlot(EntityId entityId) {
+        Integer slot = slots.get(entityId);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * Returns the number of slots in use in the sequence.
+     */
+    public int getSize(long sequence) {
+        return getFrame(sequence).size;
+    }
+
+    /**
+     * Returns the capacity of the slots in the sequence.
+     */
+    public int getCapacity(long sequence) {
+        return getFrame(sequence).capacity;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which the sequence is published.
+     */
+    public long getTime(long sequence) {
+        return getFrame(sequence).time;
+    }
+
+    /**
+     * Returns a read only view on the transforms of the sequence, without copying the data.
+     *
+     * @param sequence the sequence
+     * @return the transforms
+     */
+    public FloatBuffer getTransforms(long sequence) {
+        return getFrame(sequence).transforms.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the id of the entity in the slot of the sequence, or -1 when the slot isn't in use.
+     */
+    public long getEntityId(long sequence, int slot) {
+        Frame frame = getFrame(sequence);
+        return slot >= 0 && slot < frame.size ? frame.entityIds.get(slot) : -1;
+    }
+
+    /**
+     * Stores the location of the slot of the sequence.
+     *
+     * @return the store
+     */
+    public Vector3f getLocation(long sequence, int slot, Vector3f store) {
+        Frame frame = getFrame(sequence);
+        FloatBuffer transforms = frame.transforms;
+        int capacity = frame.capacity;
+        return store.set(transforms.get(LOCATION_X * capacity + slot), transforms.get(LOCATION_Y * capacity + slot),
+                transforms.get(LOCATION_Z * capacity + slot));
+    }
+
+    /**
+     * Stores the rotation of the slot of the sequence.
+     *
+     * @return the store
+     */
+    public Quaternion getRotation(long sequence, int slot, Quaternion store) {
+        Frame frame = getFrame(sequence);
+        FloatBuffer transforms = frame.transforms;
+        int capacity = frame.capacity;
+        return store.set(transforms.get(ROTATION_X * capacity + slot), transforms.get(ROTATION_Y * capacity + slot),
+                transforms.get(ROTATION_Z * capacity + slot), transforms.get(ROTATION_W * capacity + slot));
+    }
+
+    /**
+     * Stores the location of the entity in the slot of the sequence.
+     *
+     * @return false when the slot doesn't hold the entity in the sequence
+     */
+    public boolean getLocation(long sequence, int slot, EntityId entityId, Vector3f store) {
+        if (getEntityId(sequence, slot) != entityId.getId()) {
+            return false;
+        }
+        getLocation(sequence, slot, store);
+        return true;
+    }
+
+    /**
+     * Stores the rotation of the entity in the slot of the sequence.
+     *
+     * @return false when the slot doesn't hold the entity in the sequence
+     */
+    public boolean getRotation(long sequence, int slot, EntityId entityId, Quaternion store) {
+        if (getEntityId(sequence, slot) != entityId.getId()) {
+            return false;
+        }
+        getRotation(sequence, slot, store);
+        return true;
+    }
+
+    /**
+     * Start writing the next sequence.
+     */
+    void begin() {
+        writeSequence = sequence + 1;
+        Frame frame = getFrame(writeSequence);
+        if (frame.capacity < entityIds.length) {
+            frame = new Frame(entityIds.length);
+            frames.set((int) (writeSequence & 1), frame);
+        }
+        frame.size = size;
+    }
+
+    /**
+     * Write the transform of the entity in the sequence that is being written.
+     */
+    void write(EntityId entityId, Vector3f location, Quaternion rotation) {
+        Integer slot = slots.get(entityId);
+        if (slot == null) {
+            slot = add(entityId);
+        }
+        Frame frame = getFrame(writeSequence);
+        FloatBuffer transforms = frame.transforms;
+        int capacity = frame.capacity;
+        transforms.put(LOCATION_X * capacity + slot, location.x);
+        transforms.put(LOCATION_Y * capacity + slot, location.y);
+        transforms.put(LOCATION_Z * capacity + slot, location.z);
+        transforms.put(ROTATION_X * capacity + slot, rotation.getX());
+        transforms.put(ROTATION_Y * capacity + slot, rotation.getY());
+        transforms.put(ROTATION_Z * capacity + slot, rotation.getZ());
+        transforms.put(ROTATION_W * capacity + slot, rotation.getW());
+        frame.entityIds.put(slot, entityId.getId());
+    }
+
+    /**
+     * Publish the sequence that is being written.
+     */
+    void publish() {
+        getFrame(writeSequence).time = System.nanoTime();
+        sequence = writeSequence;
+    }
+
+    /**
+     * Remove the entity from the buffer. The body in the last slot is moved to the slot of the entity in the next
+     * written sequence.
+     */
+    void remove(EntityId entityId) {
+        Integer slot = slots.remove(entityId);
+        if (slot == null) {
+            return;
+        }
+        int last = --size;
+        if (slot != last) {
+            EntityId moved = entityIds[last];
+            entityIds[slot] = moved;
+            slots.put(moved, slot);
+        }
+        entityIds[last] = null;
+    }
+
+    /**
+     * Remove all entities from the buffer.
+     */
+    void clear() {
+        slots.clear();
+        Arrays.fill(entityIds, 0, size, null);
+        size = 0;
+    }
+
+    private int add(EntityId entityId) {
+        int slot = size++;
+        if (slot == entityIds.length) {
+            entityIds = Arrays.copyOf(entityIds, slot * 2);
+            Frame frame = new Frame(slot * 2);
+            getFrame(writeSequence).copyTo(frame, slot);
+            frames.set((int) (writeSequence & 1), frame);
+        }
+        entityIds[slot] = entityId;
+        slots.put(entityId, slot);
+        getFrame(writeSequence).size = size;
+        return slot;
+    }
+
+    private Frame getFrame(long sequence) {
+        return frames.get((int) (sequence & 1));
+    }
+
+    private static class Frame {
+
+        private final int capacity;
+        private final FloatBuffer transforms;
+        private final LongBuffer entityIds;
+        private volatile int size;
+        private volatile long time;
+
+        private Frame(int capacity) {
+            this.capacity = capacity;
+            this.transforms = ByteBuffer.allocateDirect(capacity * COMPONENTS * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            this.entityIds = ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+
+        private void copyTo(Frame frame, int size) {
+            for (int component = 0; component < COMPONENTS; component++) {
+                for (int slot = 0; slot < size; slot++) {
+                    frame.transforms.put(component * frame.capacity + slot, transforms.get(component * capacity + slot));
+                }
+            }
+            for (int slot = 0; slot < size; slot++) {
+                frame.entityIds.put(slot, entityIds.get(slot));
+            }
+        }
+
+    }
+
+}
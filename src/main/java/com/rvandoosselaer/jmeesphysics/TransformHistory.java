@@ -0,0 +1,441 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bullet.objects.PhysicsRigidBody;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.simsilica.es.EntityId;
+import com.simsilica.sim.SimTime;
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link PhysicalEntityListener} implementation that records the transforms of the dynamic entities of the last
+ * frames, for lag compensated queries: where was an entity at a time in the past. The transforms are stored in a
+ * fixed-size ring buffer of primitive arrays, tagged with the {@link SimTime} of the frame. Queries interpolate the
+ * transforms between the recorded frames. Only the frames in which the physics stepped are recorded.
+ * <p>
+ * The history is split in blocks of frames. The bounds of an entity over a block are indexed in a {@link SpatialGrid},
+ * so a query only tests the entities near the query. Queries test the bounding sphere of the collision shape of the
+ * entity, use the transform of the hit for a more precise test.
+ * <p>
+ * The listener and the queries should be used from the thread running the {@link BulletSystem}.
+ */
+public class TransformHistory implements PhysicalEntityListener {
+
+    private static final int STRIDE = 7;
+
+    @Getter
+    private final int frames;
+    @Getter
+    private final int blockFrames;
+    // the time of each recorded frame
+    private final long[] times;
+    // the number of recorded frames
+    private long frameCount;
+    private long frameTime;
+    // true when the physics stepped in the frame, updates of frames without a step are warps and aren't recorded
+    private boolean stepped;
+
+    // the slots of the entities, a slot is reused when the history of the removed entity is no longer recorded
+    private final Map<EntityId, Integer> slots = new HashMap<>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private final ArrayDeque<Integer> removedSlots = new ArrayDeque<>();
+    private int slotCount;
+    private EntityId[] entities = new EntityId[0];
+    private float[] radii = new float[0];
+    private long[] firstFrames = new long[0];
+    private long[] lastFrames = new long[0];
+    // the transforms of the slots, frames x 7 values per slot
+    private float[] transforms = new float[0];
+
+    private final BlockGrid[] grids;
+    private final Quaternion tmpRotation = new Quaternion();
+
+    /**
+     * Create a transform history.
+     *
+     * @param frames      the number of frames to record
+     * @param blockFrames the number of frames in a block of the spatial index
+     * @param cellSize    the cell size of the spatial index
+     */
+    public TransformHistory(int frames, int blockFrames, float cellSize) {
+        if (frames < 2 || blockFrames < 1) {
+            throw new IllegalArgumentException("Invalid number of frames " + frames + " or block frames " + blockFrames);
+        }
+        this.frames = frames;
+        this.blockFrames = blockFrames;
+        this.times = new long[frames];
+        this.grids = new BlockGrid[frames / blockFrames + 2];
+        for (int i = 0; i < grids.length; i++) {
+            grids[i] = new BlockGrid(new SpatialGrid(cellSize));
+        }
+    }
+
+    @Override
+    public void startFrame(SimTime time) {
+        frameTime = time.getTime();
+        stepped = false;
+    }
+
+    @Override
+    public void physicsStepped(SimTime time) {
+        stepped = true;
+    }
+
+    @Override
+    public void physicalEntityAdded(PhysicalEntity physicalEntity) {
+    }
+
+    @Override
+    public void physicalEntityUpdated(PhysicalEntity physicalEntity) {
+        if (!stepped || !isDynamic(physicalEntity)) {
+            return;
+        }
+
+        Integer slot = slots.get(physicalEntity.getEntityId());
+        if (slot == null) {
+            slot = allocate(physicalEntity);
+        }
+
+        Vector3f location = physicalEntity.getLocation();
+        Quaternion rotation = physicalEntity.getRotation();
+        int offset = getOffset(slot, frameCount);
+        transforms[offset] = location.x;
+        transforms[offset + 1] = location.y;
+        transforms[offset + 2] = location.z;
+        transforms[offset + 3] = rotation.getX();
+        transforms[offset + 4] = rotation.getY();
+        transforms[offset + 5] = rotation.getZ();
+        transforms[offset + 6] = rotation.getW();
+        lastFrames[slot] = frameCount;
+    }
+
+    @Override
+    public void physicalEntityRemoved(PhysicalEntity physicalEntity) {
+        Integer slot = slots.remove(physicalEntity.getEntityId());
+        if (slot != null) {
+            // the slot is kept until the history of the entity is no longer recorded
+            removedSlots.add(slot);
+        }
+    }
+
+    @Override
+    public void endFrame(SimTime time) {
+        if (!stepped) {
+            // the physics simulation didn't run
+            return;
+        }
+
+        times[(int) (frameCount % frames)] = frameTime;
+        frameCount++;
+
+        while (!removedSlots.isEmpty() && lastFrames[removedSlots.peek()] < frameCount - frames) {
+            int slot = removedSlots.poll();
+            entities[slot] = null;
+            freeSlots.push(slot);
+        }
+    }
+
+    /**
+     * Returns the oldest recorded time, or -1 when no frames are recorded.
+     *
+     * @return the oldest time
+     */
+    public long getOldestTime() {
+        return frameCount == 0 ? -1 : times[(int) (getOldestFrame() % frames)];
+    }
+
+    /**
+     * Returns the interpolated transform of an entity at the given time.
+     *
+     * @param entityId the entity
+     * @param time     the time of the transform
+     * @param location the location store
+     * @param rotation the rotation store
+     * @return true when the transform of the entity is recorded at the given time
+     */
+    public boolean getTransform(EntityId entityId, long time, Vector3f location, Quaternion rotation) {
+        Integer slot = slots.get(entityId);
+        if (slot == null) {
+            // the entity is removed, but its history can still be recorded
+            for (int i = 0; i < slotCount && slot == null; i++) {
+                if (entityId.equals(entities[i])) {
+                    slot = i;
+                }
+            }
+        }
+        long frame = findFrame(time);
+        return slot != null && frame >= 0 && sample(slot, frame, getAlpha(frame, time), location, rotation);
+    }
+
+    /**
+     * Cast a ray against the entities at the given time.
+     *
+     * @param origin      the origin of the ray
+     * @param direction   the direction of the ray
+     * @param maxDistance the length of the ray
+     * @param time        the time of the query
+     * @return the hits, sorted by distance
+     */
+    public List<HistoryHit> raycast(Vector3f origin, Vector3f direction, float maxDistance, long time) {
+        List<HistoryHit> hits = new ArrayList<>();
+        long frame = findFrame(time);
+        if (frame < 0) {
+            return hits;
+        }
+
+        Vector3f dir = direction.normalize();
+        Vector3f end = dir.mult(maxDistance).addLocal(origin);
+        float alpha = getAlpha(frame, time);
+        Vector3f center = new Vector3f();
+        Quaternion rotation = new Quaternion();
+        getGrid(frame).query(Math.min(origin.x, end.x), Math.min(origin.y, end.y), Math.min(origin.z, end.z),
+                Math.max(origin.x, end.x), Math.max(origin.y, end.y), Math.max(origin.z, end.z), slot -> {
+            if (!sample(slot, frame, alpha, center, rotation)) {
+                return;
+            }
+            // ray - sphere intersection
+            float mx = origin.x - center.x, my = origin.y - center.y, mz = origin.z - center.z;
+            float b = mx * dir.x + my * dir.y + mz * dir.z;
+            float c = mx * mx + my * my + mz * mz - radii[slot] * radii[slot];
+            if (c > 0 && b > 0) {
+                return;
+            }
+            float discriminant = b * b - c;
+            if (discriminant < 0) {
+                return;
+            }
+            float distance = Math.max(0, -b - (float) Math.sqrt(discriminant));
+            if (distance <= maxDistance) {
+                hits.add(new HistoryHit(entities[slot], distance, center.clone(), rotation.clone()));
+            }
+        });
+
+        hits.sort(Comparator.comparingDouble(HistoryHit::getDistance));
+        return hits;
+    }
+
+    /**
+     * Returns the entities overlapping the sphere at the given time.
+     *
+     * @param center the center of the sphere
+     * @param radius the radius of the sphere
+     * @param time   the time of the query
+     * @return the hits, sorted by the distance between the centers
+     */
+    public List<HistoryHit> overlapSphere(Vector3f center, float radius, long time) {
+        List<HistoryHit> hits = new ArrayList<>();
+        long frame = findFrame(time);
+        if (frame < 0) {
+            return hits;
+        }
+
+        float alpha = getAlpha(frame, time);
+        Vector3f location = new Vector3f();
+        Quaternion rotation = new Quaternion();
+        getGrid(frame).query(center.x - radius, center.y - radius, center.z - radius, center.x + radius,
+                center.y + radius, center.z + radius, slot -> {
+            if (!sample(slot, frame, alpha, location, rotation)) {
+                return;
+            }
+            float distance = location.distance(center);
+            if (distance <= radius + radii[slot]) {
+                hits.add(new HistoryHit(entities[slot], distance, location.clone(), rotation.clone()));
+            }
+        });
+
+        hits.sort(Comparator.comparingDouble(HistoryHit::getDistance));
+        return hits;
+    }
+
+    /**
+     * Returns the radius of the bounding sphere of the entity that is used in queries.
+     *
+     * @param physicalEntity the entity
+     * @return the radius
+     */
+    protected float getRadius(PhysicalEntity physicalEntity) {
+        PhysicsRigidBody body = (PhysicsRigidBody) physicalEntity.getPhysicalObject();
+        BoundingBox bounds = body.getCollisionShape().boundingBox(Vector3f.ZERO, Quaternion.IDENTITY, new BoundingBox());
+        return bounds.getExtent(null).length();
+    }
+
+    private static boolean isDynamic(PhysicalEntity physicalEntity) {
+        return physicalEntity.getPhysicalObject() instanceof PhysicsRigidBody && ((PhysicsRigidBody) physicalEntity.getPhysicalObject()).getMass() > 0;
+    }
+
+    private int allocate(PhysicalEntity physicalEntity) {
+        int slot;
+        if (!freeSlots.isEmpty()) {
+            slot = freeSlots.pop();
+        } else {
+            slot = slotCount++;
+            if (slot == entities.length) {
+                int capacity = Math.max(16, slot * 2);
+                entities = Arrays.copyOf(entities, capacity);
+                radii = Arrays.copyOf(radii, capacity);
+                firstFrames = Arrays.copyOf(firstFrames, capacity);
+                lastFrames = Arrays.copyOf(lastFrames, capacity);
+                transforms = Arrays.copyOf(transforms, capacity * frames * STRIDE);
+            }
+        }
+
+        entities[slot] = physicalEntity.getEntityId();
+        radii[slot] = getRadius(physicalEntity);
+        firstFrames[slot] = frameCount;
+        lastFrames[slot] = frameCount;
+        slots.put(physicalEntity.getEntityId(), slot);
+        return slot;
+    }
+
+    private int getOffset(int slot, long frame) {
+        return (slot * frames + (int) (frame % frames)) * STRIDE;
+    }
+
+    private long getOldestFrame() {
+        return Math.max(0, frameCount - frames);
+    }
+
+    /**
+     * Returns the last recorded frame at or before the time, or -1 when the time isn't recorded.
+     */
+    private long findFrame(long time) {
+        if (frameCount == 0) {
+            return -1;
+        }
+
+        long low = getOldestFrame();
+        long high = frameCount - 1;
+        if (time < times[(int) (low % frames)] || time > times[(int) (high % frames)]) {
+            return -1;
+        }
+        while (low < high) {
+            long mid = (low + high + 1) >>> 1;
+            if (times[(int) (mid % frames)] <= time) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the interpolation factor of the time between the frame and the next frame.
+     */
+    private float getAlpha(long frame, long time) {
+        if (frame + 1 >= frameCount) {
+            return 0;
+        }
+        long start = times[(int) (frame % frames)];
+        long end = times[(int) ((frame + 1) % frames)];
+        return end > start ? (float) (time - start) / (end - start) : 0;
+    }
+
+    /**
+     * Interpolate the transform of the slot between the frame and the next frame.
+     */
+    private boolean sample(int slot, long frame, float alpha, Vector3f location, Quaternion rotation) {
+        if (entities[slot] == null || frame < firstFrames[slot] || frame > lastFrames[slot]) {
+            return false;
+        }
+
+        int from = getOffset(slot, frame);
+        int to = frame + 1 <= lastFrames[slot] ? getOffset(slot, frame + 1) : from;
+        float[] t = transforms;
+        location.set(t[from] + (t[to] - t[from]) * alpha, t[from + 1] + (t[to + 1] - t[from + 1]) * alpha, t[from + 2] + (t[to + 2] - t[from + 2]) * alpha);
+        rotation.set(t[from + 3], t[from + 4], t[from + 5], t[from + 6]);
+        if (to != from) {
+            rotation.slerp(tmpRotation.set(t[to + 3], t[to + 4], t[to + 5], t[to + 6]), alpha);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the spatial index of the block of the frame. The index holds the bounds of the entities over the frames
+     * of the block and the first frame of the next block, and is rebuilt when frames are added to the block.
+     */
+    private SpatialGrid getGrid(long frame) {
+        long block = frame / blockFrames;
+        long first = block * blockFrames;
+        long last = Math.min(first + blockFrames, frameCount - 1);
+        BlockGrid blockGrid = grids[(int) (block % grids.length)];
+        if (blockGrid.block == block && blockGrid.lastFrame == last) {
+            return blockGrid.grid;
+        }
+
+        blockGrid.grid.clear();
+        for (int slot = 0; slot < slotCount; slot++) {
+            long start = Math.max(first, firstFrames[slot]);
+            long end = Math.min(last, lastFrames[slot]);
+            if (entities[slot] == null || start > end) {
+                continue;
+            }
+
+            float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+            float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+            for (long f = start; f <= end; f++) {
+                int offset = getOffset(slot, f);
+                minX = Math.min(minX, transforms[offset]);
+                minY = Math.min(minY, transforms[offset + 1]);
+                minZ = Math.min(minZ, transforms[offset + 2]);
+                maxX = Math.max(maxX, transforms[offset]);
+                maxY = Math.max(maxY, transforms[offset + 1]);
+                maxZ = Math.max(maxZ, transforms[offset + 2]);
+            }
+            float r = radii[slot];
+            blockGrid.grid.insert(slot, minX - r, minY - r, minZ - r, maxX + r, maxY + r, maxZ + r);
+        }
+        blockGrid.block = block;
+        blockGrid.lastFrame = last;
+        return blockGrid.grid;
+    }
+
+    private static class BlockGrid {
+        private final SpatialGrid grid;
+        private long block = -1;
+        private long lastFrame = -1;
+
+        private BlockGrid(SpatialGrid grid) {
+            this.grid = grid;
+        }
+    }
+
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.simsilica.es.EntityId;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interpolates the transforms of a {@link TransformBuffer} on the render thread, so the visuals stay smooth when the
+ * physics runs at a lower or different rate than the frame rate.
+ * <p>
+ * The interpolator keeps the previous and the current published transform of each body in primitive arrays. Each
+ * frame {@link #update()} copies a newly published sequence and calculates the step alpha: the time since the current
+ * sequence is published, relative to the time between the previous and the current sequence. The rendered transforms
+ * are a blend of the previous and current transforms with the alpha, so the visuals are one physics step behind.
+ * <p>
+ * An interpolator is not thread safe, it should only be used from the render thread.
+ */
+public class TransformInterpolator {
+
+    private static final int STRIDE = TransformBuffer.COMPONENTS;
+    private static final int MAX_TRIES = 3;
+
+    private final TransformBuffer transformBuffer;
+    // the transforms of the previous and current sequence, indexed by the slots of the current sequence
+    private float[] previous = new float[0];
+    private float[] current = new float[0];
+    private float[] scratch = new float[0];
+    private long[] entityIds = new long[0];
+    private long[] previousEntityIds = new long[0];
+    private int size;
+    private final Map<Long, Integer> index = new HashMap<>();
+    private boolean indexValid;
+    private long sequence;
+    private long previousTime;
+    private long currentTime;
+    /**
+     * The blend factor between the previous and the current transforms, in the range [0, 1].
+     */
+    @Getter
+    private float alpha = 1;
+
+    public TransformInterpolator(@NonNull TransformBuffer transformBuffer) {
+        this.transformBuffer = transformBuffer;
+    }
+
+    /**
+     * Copy the last published sequence when it's new and calculate the alpha of the current time.
+     */
+    public void update() {
+        update(System.nanoTime());
+    }
+
+    /**
+     * Copy the last published sequence when it's new and calculate the alpha of the given {@link System#nanoTime()}.
+     *
+     * @param time the render time
+     */
+    public void update(long time) {
+        for (int tries = 0; tries < MAX_TRIES; tries++) {
+            long latest = transformBuffer.getSequence();
+            if (latest == sequence || read(latest)) {
+                break;
+            }
+        }
+
+        long step = currentTime - previousTime;
+        alpha = step > 0 ? FastMath.clamp((float) (time - currentTime) / step, 0, 1) : 1;
+    }
+
+    /**
+     * Returns the number of interpolated bodies.
+     *
+     * @return the number of bodies
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the entity id of the body at the index.
+     *
+     * @param i the index of the body
+     * @return the entity id
+     */
+    public long getEntityId(int i) {
+        return entityIds[i];
+    }
+
+    /**
+     * Returns the index of the body of the entity, or -1 when the entity isn't interpolated.
+     *
+     * @param entityId the entity
+     * @return the index or -1
+     */
+    public int indexOf(EntityId entityId) {
+        // the slot in the buffer usually didn't change
+        int slot = transformBuffer.getSlot(entityId);
+        if (slot >= 0 && slot < size && entityIds[slot] == entityId.getId()) {
+            return slot;
+        }
+        Integer i = getIndex().get(entityId.getId());
+        return i != null ? i : -1;
+    }
+
+    /**
+     * Stores the interpolated location of the body at the index.
+     *
+     * @return the store
+     */
+    public Vector3f getLocation(int i, Vector3f store) {
+        int offset = i * STRIDE;
+        return store.set(lerp(offset + TransformBuffer.LOCATION_X), lerp(offset + TransformBuffer.LOCATION_Y),
+                lerp(offset + TransformBuffer.LOCATION_Z));
+    }
+
+    /**
+     * Stores the interpolated rotation of the body at the index.
+     *
+     * @return the store
+     */
+    public Quaternion getRotation(int i, Quaternion store) {
+        int offset = i * STRIDE + TransformBuffer.ROTATION_X;
+        // normalized lerp along the shortest path
+        float sign = previous[offset] * current[offset] + previous[offset + 1] * current[offset + 1] +
+                previous[offset + 2] * current[offset + 2] + previous[offset + 3] * current[offset + 3] < 0 ? -1 : 1;
+        float x = nlerp(offset, sign);
+        float y = nlerp(offset + 1, sign);
+        float z = nlerp(offset + 2, sign);
+        float w = nlerp(offset + 3, sign);
+        float length = FastMath.sqrt(x * x + y * y + z * z + w * w);
+        if (length == 0) {
+            return store.set(current[offset], current[offset + 1], current[offset + 2], current[offset + 3]);
+        }
+        return store.set(x / length, y / length, z / length, w / length);
+    }
+
+    /**
+     * Stores the interpolated location of the entity.
+     *
+     * @return false when the entity isn't interpolated
+     */
+    public boolean getLocation(EntityId entityId, Vector3f store) {
+        int i = indexOf(entityId);
+        if (i < 0) {
+            return false;
+        }
+        getLocation(i, store);
+        return true;
+    }
+
+    /**
+     * Stores the interpolated rotation of the entity.
+     *
+     * @return false when the entity isn't interpolated
+     */
+    public boolean getRotation(EntityId entityId, Quaternion store) {
+        int i = indexOf(entityId);
+        if (i < 0) {
+            return false;
+        }
+        getRotation(i, store);
+        return true;
+    }
+
+    private float lerp(int i) {
+        return previous[i] + (current[i] - previous[i]) * alpha;
+    }
+
+    private float nlerp(int i, float sign) {
+        return previous[i] * sign * (1 - alpha) + current[i] * alpha;
+    }
+
+    // copy the sequence, returns false when the sequence is overwritten while copying
+    private boolean read(long latest) {
+        int latestSize = transformBuffer.getSize(latest);
+        int capacity = transformBuffer.getCapacity(latest);
+        if (scratch.length < latestSize * STRIDE) {
+            int length = Math.max(latestSize, size * 2) * STRIDE;
+            scratch = new float[length];
+            previous = Arrays.copyOf(previous, length);
+            current = Arrays.copyOf(current, length);
+        }
+        if (previousEntityIds.length < latestSize) {
+            previousEntityIds = new long[Math.max(latestSize, entityIds.length * 2)];
+        }
+
+        // copy the new transforms in the free array
+        float[] next = scratch;
+        long[] nextEntityIds = previousEntityIds;
+        for (int slot = 0; slot < latestSize; slot++) {
+            nextEntityIds[slot] = transformBuffer.getEntityId(latest, slot);
+        }
+        FloatBuffer transforms = transformBuffer.getTransforms(latest);
+        for (int component = 0; component < STRIDE; component++) {
+            int offset = component * capacity;
+            for (int slot = 0; slot < latestSize; slot++) {
+                next[slot * STRIDE + component] = transforms.get(offset + slot);
+            }
+        }
+        long time = transformBuffer.getTime(latest);
+        if (!transformBuffer.isValid(latest)) {
+            return false;
+        }
+
+        // the current transforms become the previous transforms, in the slots of the new sequence
+        float[] nextPrevious = previous;
+        boolean changed = latestSize != size;
+        for (int slot = 0; slot < latestSize; slot++) {
+            long entityId = nextEntityIds[slot];
+            int i = slot < size && entityIds[slot] == entityId ? slot : -1;
+            if (i < 0) {
+                changed = true;
+                Integer old = getIndex().get(entityId);
+                i = old != null ? old : -1;
+            }
+            // a new body doesn't have a previous transform
+            System.arraycopy(i >= 0 ? current : next, (i >= 0 ? i : slot) * STRIDE, nextPrevious, slot * STRIDE, STRIDE);
+        }
+
+        scratch = current;
+        current = next;
+        previous = nextPrevious;
+        previousEntityIds = entityIds;
+        entityIds = nextEntityIds;
+        size = latestSize;
+        indexValid = indexValid && !changed;
+        previousTime = sequence == 0 ? time : currentTime;
+        currentTime = time;
+        sequence = latest;
+        return true;
+    }
+
+    private Map<Long, Integer> getIndex() {
+        if (!indexValid) {
+            index.clear();
+            for (int i = 0; i < size; i++) {
+                index.put(entityIds[i], i);
+            }
+            indexValid = true;
+        }
+        return index;
+    }
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics;
+
+import com.jme3.math.Vector3f;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * The world location of the origin of the physics space, in double precision. When origin shifting is enabled on the
+ * {@link BulletSystem}, the bodies are simulated relative to this origin to keep the float coordinates of the physics
+ * space small. Components and listeners use world coordinates, the physics space uses local coordinates.
+ */
+@Getter
+@ToString
+public class WorldOrigin {
+
+    private double x;
+    private double y;
+    private double z;
+
+    /**
+     * Convert a location in the physics space to a world location.
+     *
+     * @param local the location in the physics space
+     * @param store the store, can be the local location
+     * @return the store
+     */
+    public Vector3f toWorld(Vector3f local, Vector3f store) {
+        return store.set((float) (local.x + x), (float) (local.y + y), (float) (local.z + z));
+    }
+
+    /**
+     * Convert a location in the physics space to a world location in double precision.
+     *
+     * @param local the location in the physics space
+     * @param store an array of at least 3 elements
+     * @return the store
+     */
+    public double[] toWorld(Vector3f local, double[] store) {
+        store[0] = local.x + x;
+        store[1] = local.y + y;
+        store[2] = local.z + z;
+        return store;
+    }
+
+    /**
+     * Convert a world location to a location in the physics space.
+     *
+     * @param world the world location
+     * @param store the store, can be the world location
+     * @return the store
+     */
+    public Vector3f toLocal(Vector3f world, Vector3f store) {
+        return store.set((float) (world.x - x), (float) (world.y - y), (float) (world.z - z));
+    }
+
+    /**
+     * Convert a world location in double precision to a location in the physics space.
+     *
+     * @param world the world location
+     * @param store the store
+     * @return the store
+     */
+    public Vector3f toLocal(double[] world, Vector3f store) {
+        return store.set((float) (world[0] - x), (float) (world[1] - y), (float) (world[2] - z));
+    }
+
+    /**
+     * Move the origin with the offset.
+     */
+    void shift(Vector3f offset) {
+        x += offset.x;
+        y += offset.y;
+        z += offset.z;
+    }
+
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics.replication;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads values written by a {@link BitWriter}.
+ */
+class BitReader {
+
+    private final ByteBuffer buffer;
+    private long scratch;
+    private int scratchBits;
+
+    BitReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    long readBits(int bits) {
+        while (scratchBits < bits) {
+            if (!buffer.hasRemaining()) {
+                throw new IllegalArgumentException("Unexpected end of packet");
+            }
+            scratch |= (buffer.get() & 0xFFL) << scratchBits;
+            scratchBits += 8;
+        }
+        long value = scratch & ((1L << bits) - 1);
+        scratch >>>= bits;
+        scratchBits -= bits;
+        return value;
+    }
+
+    boolean readBoolean() {
+        return readBits(1) != 0;
+    }
+
+    long readVarLong() {
+        long value = 0;
+        int shift = 0;
+        long group;
+        do {
+            if (shift > 63) {
+                throw new IllegalArgumentException("Invalid variable length value");
+            }
+            group = readBits(8);
+            value |= (group & 0x7F) << shift;
+            shift += 7;
+        } while ((group & 0x80) != 0);
+        return value;
+    }
+
+    long readZigZag() {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
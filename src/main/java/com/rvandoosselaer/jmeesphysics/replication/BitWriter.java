@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics.replication;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes values with an arbitrary number of bits to a byte buffer.
+ */
+class BitWriter {
+
+    private final ByteBuffer buffer;
+    private long scratch;
+    private int scratchBits;
+
+    BitWriter(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Write the lowest bits of the value, at most 32 bits.
+     */
+    void writeBits(long value, int bits) {
+        scratch |= (value & ((1L << bits) - 1)) << scratchBits;
+        scratchBits += bits;
+        while (scratchBits >= 8) {
+            buffer.put((byte) scratch);
+            scratch >>>= 8;
+            scratchBits -= 8;
+        }
+    }
+
+    void writeBoolean(boolean value) {
+        writeBits(value ? 1 : 0, 1);
+    }
+
+    /**
+     * Write a non-negative value in groups of 7 bits, small values take less bits.
+     */
+    void writeVarLong(long value) {
+        do {
+            long group = value & 0x7F;
+            value >>>= 7;
+            writeBits(value != 0 ? group | 0x80 : group, 8);
+        } while (value != 0);
+    }
+
+    /**
+     * Write a signed value, small positive and negative values take less bits.
+     */
+    void writeZigZag(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Write the remaining bits and return the buffer, flipped for reading.
+     */
+    ByteBuffer finish() {
+        if (scratchBits > 0) {
+            buffer.put((byte) scratch);
+            scratch = 0;
+            scratchBits = 0;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+}
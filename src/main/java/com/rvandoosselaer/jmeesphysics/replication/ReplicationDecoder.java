@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics.replication;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.simsilica.es.EntityId;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the packets of a {@link ReplicationPublisher} on the client. The decoder keeps the state of the last ticks,
+ * so packets that are encoded against an older acknowledged tick can be decoded. The tick returned by
+ * {@link #decode(ByteBuffer)} should be acknowledged to the publisher.
+ */
+public class ReplicationDecoder {
+
+    private static final int HISTORY = 64;
+
+    @Getter
+    private final float precision;
+    private final Snapshot[] history = new Snapshot[HISTORY];
+    private final Snapshot.Builder builder = new Snapshot.Builder();
+    private final int[] values = new int[4];
+    private long[] removedIds = new long[64];
+    // the most recent state
+    private Snapshot current;
+
+    /**
+     * Create a decoder.
+     *
+     * @param precision the precision of the locations, should be the same as the precision of the publisher
+     */
+    public ReplicationDecoder(float precision) {
+        if (!(precision > 0)) {
+            throw new IllegalArgumentException("Invalid precision " + precision);
+        }
+        this.precision = precision;
+    }
+
+    /**
+     * Decode a packet.
+     *
+     * @param packet the packet
+     * @return the tick of the packet
+     * @throws IllegalStateException when the baseline of the packet is unknown
+     */
+    public long decode(ByteBuffer packet) {
+        BitReader reader = new BitReader(packet);
+        long tick = reader.readVarLong();
+        long baselineTick = reader.readVarLong() - 1;
+        Snapshot baseline = null;
+        if (baselineTick >= 0) {
+            baseline = history[(int) (baselineTick % HISTORY)];
+            if (baseline == null || baseline.tick != baselineTick) {
+                throw new IllegalStateException("Unknown baseline " + baselineTick + " of tick " + tick);
+            }
+        }
+        int baselineSize = baseline != null ? baseline.size : 0;
+
+        builder.clear();
+        int b = 0;
+        long id = 0;
+        long count = reader.readVarLong();
+        for (long c = 0; c < count; c++) {
+            id += reader.readVarLong();
+            // copy the unchanged entities of the baseline
+            while (b < baselineSize && baseline.getId(b) < id) {
+                copy(baseline, b++);
+            }
+            int match = b < baselineSize && baseline.getId(b) == id ? b++ : -1;
+
+            for (int v = 0; v < 4; v++) {
+                values[v] = match >= 0 ? baseline.getValue(match, v) : 0;
+            }
+            if (reader.readBoolean()) {
+                for (int axis = 0; axis < 3; axis++) {
+                    values[axis] = (int) (values[axis] + reader.readZigZag());
+                }
+            }
+            if (reader.readBoolean()) {
+                values[3] = (int) reader.readBits(32);
+            }
+            builder.add(id, values[0], values[1], values[2], values[3]);
+        }
+        while (b < baselineSize) {
+            copy(baseline, b++);
+        }
+
+        // remove the removed entities
+        int removed = (int) reader.readVarLong();
+        if (removedIds.length < removed) {
+            removedIds = new long[Math.max(removed, removedIds.length * 2)];
+        }
+        id = 0;
+        for (int r = 0; r < removed; r++) {
+            id += reader.readVarLong();
+            removedIds[r] = id;
+        }
+        // the ids are delta encoded in ascending order
+        builder.remove(removedIds, removed);
+
+        int index = (int) (tick % HISTORY);
+        Snapshot snapshot = builder.build(tick, getBuffer(history[index], baseline, Snapshot.getCapacity(builder.size())));
+        history[index] = snapshot;
+        if (current == null || tick > current.tick) {
+            current = snapshot;
+        }
+        return tick;
+    }
+
+    /**
+     * Returns the tick of the most recent state, or -1 when no packet is decoded.
+     *
+     * @return the tick
+     */
+    public long getTick() {
+        return current != null ? current.tick : -1;
+    }
+
+    /**
+     * Returns the number of entities in the most recent state.
+     *
+     * @return the number of entities
+     */
+    public int size() {
+        return current != null ? current.size : 0;
+    }
+
+    public EntityId getEntityId(int index) {
+        return new EntityId(current.getId(checkIndex(index)));
+    }
+
+    public Vector3f getLocation(int index, Vector3f store) {
+        checkIndex(index);
+        return (store != null ? store : new Vector3f()).set(current.getValue(index, 0) * precision,
+                current.getValue(index, 1) * precision, current.getValue(index, 2) * precision);
+    }
+
+    public Quaternion getRotation(int index, Quaternion store) {
+        return SmallestThree.unpack(current.getValue(checkIndex(index), 3), store);
+    }
+
+    /**
+     * Returns the index of the entity in the most recent state, or -1 when the entity isn't in the state.
+     *
+     * @param entityId the entity
+     * @return the index or -1
+     */
+    public int indexOf(EntityId entityId) {
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long id = current.getId(mid);
+            if (id < entityId.getId()) {
+                low = mid + 1;
+            } else if (id > entityId.getId()) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private void copy(Snapshot snapshot, int index) {
+        builder.add(snapshot.getId(index), snapshot.getValue(index, 0), snapshot.getValue(index, 1), snapshot.getValue(index, 2), snapshot.getValue(index, 3));
+    }
+
+    /**
+     * Returns the buffer of the snapshot that is replaced in the history when it's large enough and no longer used,
+     * otherwise a new buffer.
+     */
+    private ByteBuffer getBuffer(Snapshot replaced, Snapshot baseline, int capacity) {
+        if (replaced != null && replaced != current && replaced != baseline && replaced.buffer.capacity() >= capacity) {
+            return replaced.buffer;
+        }
+        // leave room to grow, so the buffer can be reused when the number of entities increases
+        return ByteBuffer.allocate(capacity + capacity / 4);
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for size " + size());
+        }
+        return index;
+    }
+
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics.replication;
+
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.rvandoosselaer.jmeesphysics.ByteBufferPool;
+import com.rvandoosselaer.jmeesphysics.PhysicalEntity;
+import com.rvandoosselaer.jmeesphysics.PhysicalEntityListener;
+import com.simsilica.sim.SimTime;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link PhysicalEntityListener} implementation that replicates the transforms of the physical entities to clients.
+ * Each physics tick a packet is sent to each client with only the entities that changed since the last tick the client
+ * acknowledged, and the entities that are removed since then. Locations are quantized to a fixed precision and
+ * rotations are encoded using the smallest three encoding, and the packet is bit-packed.
+ * <p>
+ * The quantized snapshots of the last ticks are kept in pooled buffers as baselines. When the acknowledged tick of a
+ * client is no longer available, the client receives the full state.
+ * <p>
+ * Clients can be added, removed and acknowledged from any thread, eg. the threads of the network layer. The other
+ * methods should only be called from the thread running the BulletSystem.
+ *
+ * @param <C> the type of the client
+ */
+public class ReplicationPublisher<C> implements PhysicalEntityListener {
+
+    private static final int HISTORY = 64;
+
+    private final ReplicationTransport<C> transport;
+    private final ByteBufferPool bufferPool;
+    @Getter
+    private final float precision;
+    // the acknowledged tick of each client, -1 when the client didn't acknowledge a tick
+    private final Map<C, Long> clients = new ConcurrentHashMap<>();
+    private final Snapshot[] history = new Snapshot[HISTORY];
+    private final Snapshot.Builder builder = new Snapshot.Builder();
+    private int[] changed = new int[64];
+    private int[] removedIndices = new int[8];
+    @Getter
+    private long tick;
+    // true when the physics simulation ran this frame, only the updates after the physics calculation are replicated
+    private boolean stepped;
+    @Getter
+    private long bytesSent;
+
+    /**
+     * Create a publisher.
+     *
+     * @param transport  the transport of the packets
+     * @param precision  the precision of the locations
+     * @param bufferPool the pool of the snapshot and packet buffers
+     */
+    public ReplicationPublisher(@NonNull ReplicationTransport<C> transport, float precision, @NonNull ByteBufferPool bufferPool) {
+        if (!(precision > 0)) {
+            throw new IllegalArgumentException("Invalid precision " + precision);
+        }
+        this.transport = transport;
+        this.precision = precision;
+        this.bufferPool = bufferPool;
+    }
+
+    public void addClient(@NonNull C client) {
+        clients.putIfAbsent(client, -1L);
+    }
+
+    public void removeClient(@NonNull C client) {
+        clients.remove(client);
+    }
+
+    /**
+     * Acknowledge that the client received the packet of a tick. The next packets of the client only hold the changes
+     * since the most recent acknowledged tick.
+     *
+     * @param client the client
+     * @param tick   the tick of the received packet
+     */
+    public void acknowledge(@NonNull C client, long tick) {
+        clients.computeIfPresent(client, (c, acknowledged) -> Math.max(acknowledged, tick));
+    }
+
+    @Override
+    public void startFrame(SimTime time) {
+        builder.clear();
+        stepped = false;
+    }
+
+    @Override
+    public void physicsStepped(SimTime time) {
+        // drop the warps before the physics calculation, the entities are updated again with the result
+        builder.clear();
+        stepped = true;
+    }
+
+    @Override
+    public void physicalEntityAdded(PhysicalEntity physicalEntity) {
+    }
+
+    @Override
+    public void physicalEntityUpdated(PhysicalEntity physicalEntity) {
+        if (!stepped) {
+            return;
+        }
+        Vector3f location = physicalEntity.getLocation();
+        Quaternion rotation = physicalEntity.getRotation();
+        builder.add(physicalEntity.getEntityId().getId(), quantize(location.x), quantize(location.y), quantize(location.z), SmallestThree.pack(rotation));
+    }
+
+    @Override
+    public void physicalEntityRemoved(PhysicalEntity physicalEntity) {
+    }
+
+    @Override
+    public void endFrame(SimTime time) {
+        if (!stepped) {
+            // the physics simulation didn't run
+            return;
+        }
+
+        tick++;
+        int index = (int) (tick % HISTORY);
+        if (history[index] != null) {
+            bufferPool.release(history[index].buffer);
+        }
+        Snapshot snapshot = builder.build(tick, bufferPool.acquire(Snapshot.getCapacity(builder.size())));
+        history[index] = snapshot;
+
+        for (Map.Entry<C, Long> client : clients.entrySet()) {
+            Snapshot baseline = getSnapshot(client.getValue());
+            ByteBuffer packet = encode(snapshot, baseline);
+            try {
+                bytesSent += packet.remaining();
+                transport.send(client.getKey(), packet);
+            } finally {
+                bufferPool.release(packet);
+            }
+        }
+    }
+
+    /**
+     * Release the pooled buffers of the baselines.
+     */
+    public void cleanup() {
+        for (int i = 0; i < history.length; i++) {
+            if (history[i] != null) {
+                bufferPool.release(history[i].buffer);
+                history[i] = null;
+            }
+        }
+    }
+
+    private Snapshot getSnapshot(long tick) {
+        if (tick < 0) {
+            return null;
+        }
+        Snapshot snapshot = history[(int) (tick % HISTORY)];
+        return snapshot != null && snapshot.tick == tick ? snapshot : null;
+    }
+
+    private ByteBuffer encode(Snapshot snapshot, Snapshot baseline) {
+        int baselineSize = baseline != null ? baseline.size : 0;
+        // the worst case size of a packet: 10 bytes per variable length value and 4 bytes per rotation
+        ByteBuffer buffer = bufferPool.acquire(30 + snapshot.size * 55 + baselineSize * 10);
+        BitWriter writer = new BitWriter(buffer);
+        writer.writeVarLong(snapshot.tick);
+        writer.writeVarLong(baseline != null ? baseline.tick + 1 : 0);
+
+        // find the changed entities and the position of the entity in the baseline
+        if (changed.length < snapshot.size * 2) {
+            changed = new int[snapshot.size * 2];
+        }
+        int count = 0;
+        int b = 0;
+        for (int i = 0; i < snapshot.size; i++) {
+            long id = snapshot.getId(i);
+            while (b < baselineSize && baseline.getId(b) < id) {
+                b++;
+            }
+            int match = b < baselineSize && baseline.getId(b) == id ? b : -1;
+            if (match < 0 || !isEqual(snapshot, i, baseline, match)) {
+                changed[count * 2] = i;
+                changed[count * 2 + 1] = match;
+                count++;
+            }
+        }
+
+        writer.writeVarLong(count);
+        long previousId = 0;
+        for (int c = 0; c < count; c++) {
+            int i = changed[c * 2];
+            int match = changed[c * 2 + 1];
+            long id = snapshot.getId(i);
+            writer.writeVarLong(id - previousId);
+            previousId = id;
+
+            boolean locationChanged = match < 0 || snapshot.getValue(i, 0) != baseline.getValue(match, 0)
+                    || snapshot.getValue(i, 1) != baseline.getValue(match, 1) || snapshot.getValue(i, 2) != baseline.getValue(match, 2);
+            writer.writeBoolean(locationChanged);
+            if (locationChanged) {
+                for (int axis = 0; axis < 3; axis++) {
+                    long reference = match >= 0 ? baseline.getValue(match, axis) : 0;
+                    writer.writeZigZag(snapshot.getValue(i, axis) - reference);
+                }
+            }
+            boolean rotationChanged = match < 0 || snapshot.getValue(i, 3) != baseline.getValue(match, 3);
+            writer.writeBoolean(rotationChanged);
+            if (rotationChanged) {
+                writer.writeBits(snapshot.getValue(i, 3), 32);
+            }
+        }
+
+        // the entities of the baseline that are removed
+        int removed = 0;
+        int s = 0;
+        for (int i = 0; i < baselineSize; i++) {
+            long id = baseline.getId(i);
+            while (s < snapshot.size && snapshot.getId(s) < id) {
+                s++;
+            }
+            if (s >= snapshot.size || snapshot.getId(s) != id) {
+                if (removed == removedIndices.length) {
+                    removedIndices = Arrays.copyOf(removedIndices, removed * 2);
+                }
+                removedIndices[removed++] = i;
+            }
+        }
+        writer.writeVarLong(removed);
+        previousId = 0;
+        for (int r = 0; r < removed; r++) {
+            long id = baseline.getId(removedIndices[r]);
+            writer.writeVarLong(id - previousId);
+            previousId = id;
+        }
+
+        return writer.finish();
+    }
+
+    private static boolean isEqual(Snapshot a, int i, Snapshot b, int j) {
+        for (int c = 0; c < 4; c++) {
+            if (a.getValue(i, c) != b.getValue(j, c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int quantize(float value) {
+        return Math.round(value / precision);
+    }
+
+}
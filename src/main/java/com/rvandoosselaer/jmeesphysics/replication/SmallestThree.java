@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics.replication;
+
+import com.jme3.math.Quaternion;
+
+/**
+ * Quantization of rotations using the smallest three encoding: the largest component of the normalized quaternion is
+ * left out and recalculated from the other three components, which are in the range of [-1/sqrt(2), 1/sqrt(2)]. The
+ * index of the largest component and the three other components are packed in 32 bits.
+ */
+class SmallestThree {
+
+    private static final int BITS = 10;
+    private static final int MAX = (1 << BITS) - 1;
+    private static final float RANGE = (float) (1 / Math.sqrt(2));
+
+    private SmallestThree() {
+    }
+
+    static int pack(Quaternion rotation) {
+        float length = (float) Math.sqrt(rotation.norm());
+        int largest = 0;
+        for (int i = 1; i < 4; i++) {
+            if (Math.abs(get(rotation, i)) > Math.abs(get(rotation, largest))) {
+                largest = i;
+            }
+        }
+        // q and -q are the same rotation, make the largest component positive so its sign doesn't need to be stored
+        float scale = length > 0 ? (get(rotation, largest) < 0 ? -1 : 1) / length : 1;
+
+        int packed = largest;
+        for (int i = 0; i < 4; i++) {
+            if (i != largest) {
+                float value = (get(rotation, i) * scale + RANGE) / (2 * RANGE);
+                packed = (packed << BITS) | Math.max(0, Math.min(MAX, Math.round(value * MAX)));
+            }
+        }
+        return packed;
+    }
+
+    static Quaternion unpack(int packed, Quaternion store) {
+        int largest = (packed >>> (3 * BITS)) & 3;
+        // the three smallest components in the order of the quaternion
+        float a = getComponent(packed, 2 * BITS);
+        float b = getComponent(packed, BITS);
+        float c = getComponent(packed, 0);
+        float d = (float) Math.sqrt(Math.max(0, 1 - a * a - b * b - c * c));
+        store = store != null ? store : new Quaternion();
+        switch (largest) {
+            case 0:
+                return store.set(d, a, b, c);
+            case 1:
+                return store.set(a, d, b, c);
+            case 2:
+                return store.set(a, b, d, c);
+            default:
+                return store.set(a, b, c, d);
+        }
+    }
+
+    private static float get(Quaternion rotation, int component) {
+        switch (component) {
+            case 0:
+                return rotation.getX();
+            case 1:
+                return rotation.getY();
+            case 2:
+                return rotation.getZ();
+            default:
+                return rotation.getW();
+        }
+    }
+
+    private static float getComponent(int packed, int shift) {
+        return ((packed >>> shift) & MAX) / (float) MAX * 2 * RANGE - RANGE;
+    }
+
+}
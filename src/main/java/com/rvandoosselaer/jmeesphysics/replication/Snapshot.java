@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics.replication;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The quantized transforms of the entities at a tick, sorted by entity id. Each entry holds the entity id, the
+ * quantized location and the packed rotation.
+ */
+class Snapshot {
+
+    static final int ENTRY_SIZE = 8 + 4 * 4;
+
+    final long tick;
+    final int size;
+    final ByteBuffer buffer;
+
+    private Snapshot(long tick, int size, ByteBuffer buffer) {
+        this.tick = tick;
+        this.size = size;
+        this.buffer = buffer;
+    }
+
+    long getId(int index) {
+        return buffer.getLong(index * ENTRY_SIZE);
+    }
+
+    /**
+     * Returns a component of the entry: 0, 1 and 2 are the location, 3 is the packed rotation.
+     */
+    int getValue(int index, int component) {
+        return buffer.getInt(index * ENTRY_SIZE + 8 + 4 * component);
+    }
+
+    static int getCapacity(int size) {
+        return Math.max(1, size * ENTRY_SIZE);
+    }
+
+    /**
+     * Collects the entries of a snapshot in primitive arrays.
+     */
+    static class Builder {
+
+        private long[] ids = new long[64];
+        private int[] values = new int[64 * 4];
+        private int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void add(long id, int x, int y, int z, int rotation) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                values = Arrays.copyOf(values, size * 8);
+            }
+            ids[size] = id;
+            values[size * 4] = x;
+            values[size * 4 + 1] = y;
+            values[size * 4 + 2] = z;
+            values[size * 4 + 3] = rotation;
+            size++;
+        }
+
+        /**
+         * Remove the entries with the given ids.
+         *
+         * @param removedIds the ids, sorted in ascending order
+         * @param count      the number of ids
+         */
+        void remove(long[] removedIds, int count) {
+            if (count == 0) {
+                return;
+            }
+            sort();
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (Arrays.binarySearch(removedIds, 0, count, ids[i]) >= 0) {
+                    continue;
+                }
+                ids[kept] = ids[i];
+                System.arraycopy(values, i * 4, values, kept * 4, 4);
+                kept++;
+            }
+            size = kept;
+        }
+
+        /**
+         * Sort the entries by id and keep the last entry of an id. The entries are added in the same order each tick,
+         * so an insertion sort is close to linear.
+         */
+        private void sort() {
+            for (int i = 1; i < size; i++) {
+                long id = ids[i];
+                int x = values[i * 4], y = values[i * 4 + 1], z = values[i * 4 + 2], r = values[i * 4 + 3];
+                int j = i - 1;
+                while (j >= 0 && ids[j] > id) {
+                    ids[j + 1] = ids[j];
+                    System.arraycopy(values, j * 4, values, (j + 1) * 4, 4);
+                    j--;
+                }
+                ids[j + 1] = id;
+                values[(j + 1) * 4] = x;
+                values[(j + 1) * 4 + 1] = y;
+                values[(j + 1) * 4 + 2] = z;
+                values[(j + 1) * 4 + 3] = r;
+            }
+
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (i + 1 < size && ids[i + 1] == ids[i]) {
+                    continue;
+                }
+                ids[count] = ids[i];
+                System.arraycopy(values, i * 4, values, count * 4, 4);
+                count++;
+            }
+            size = count;
+        }
+
+        /**
+         * Sort the entries, collapse the entries of the same id to the last added entry and write them in the buffer.
+         * The buffer should have a capacity of at least {@link #getCapacity(int)} of the size.
+         */
+        Snapshot build(long tick, ByteBuffer buffer) {
+            sort();
+            for (int i = 0; i < size; i++) {
+                int offset = i * ENTRY_SIZE;
+                buffer.putLong(offset, ids[i]);
+                for (int c = 0; c < 4; c++) {
+                    buffer.putInt(offset + 8 + 4 * c, values[i * 4 + c]);
+                }
+            }
+            return new Snapshot(tick, size, buffer);
+        }
+
+    }
+
+}
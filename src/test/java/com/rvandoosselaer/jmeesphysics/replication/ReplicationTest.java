@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) 2020, rvandoosselaer
+ * All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * <p>
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * <p>
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * <p>
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.rvandoosselaer.jmeesphysics.replication;
+
+import com.jme3.bullet.collision.PhysicsCollisionObject;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.rvandoosselaer.jmeesphysics.ByteBufferPool;
+import com.rvandoosselaer.jmeesphysics.PhysicalEntity;
+import com.rvandoosselaer.jmeesphysics.PhysicalEntityDriver;
+import com.simsilica.es.EntityId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Replicates the transforms over an in-memory transport to a {@link ReplicationDecoder} per client.
+ */
+public class ReplicationTest {
+
+    private static final float PRECISION = 0.01f;
+
+    private final Map<String, ReplicationDecoder> decoders = new LinkedHashMap<>();
+    private ReplicationPublisher<String> publisher;
+    private int packets;
+
+    @BeforeEach
+    public void setup() {
+        ReplicationTransport<String> transport = (client, packet) -> {
+            packets++;
+            ByteBuffer copy = ByteBuffer.allocate(packet.remaining());
+            copy.put(packet).flip();
+            long tick = decoders.get(client).decode(copy);
+            publisher.acknowledge(client, tick);
+        };
+        publisher = new ReplicationPublisher<>(transport, PRECISION, new ByteBufferPool());
+        addClient("client");
+    }
+
+    @Test
+    public void replicatesTheTransforms() {
+        TestEntity a = new TestEntity(1, new Vector3f(1, 2, 3), new Quaternion().fromAngles(0.1f, 0.2f, 0.3f));
+        TestEntity b = new TestEntity(2, new Vector3f(-4, 5, -6), new Quaternion());
+
+        step(a, b);
+
+        ReplicationDecoder decoder = decoders.get("client");
+        assertEquals(1, decoder.getTick());
+        assertEquals(2, decoder.size());
+        assertTransform(decoder, a);
+        assertTransform(decoder, b);
+
+        a.location.set(10, 20, 30);
+        step(a, b);
+
+        assertEquals(2, decoder.getTick());
+        assertEquals(2, decoder.size());
+        assertTransform(decoder, a);
+        assertTransform(decoder, b);
+    }
+
+    @Test
+    public void removesTheEntitiesThatAreNoLongerUpdated() {
+        TestEntity a = new TestEntity(1, new Vector3f(1, 0, 0), new Quaternion());
+        TestEntity b = new TestEntity(2, new Vector3f(2, 0, 0), new Quaternion());
+        step(a, b);
+        step(a);
+
+        ReplicationDecoder decoder = decoders.get("client");
+        assertEquals(1, decoder.size());
+        assertEquals(-1, decoder.indexOf(b.entityId));
+        assertTransform(decoder, a);
+    }
+
+    @Test
+    public void ignoresWarpsWhenThePhysicsDoesNotStep() {
+        TestEntity a = new TestEntity(1, new Vector3f(1, 0, 0), new Quaternion());
+        TestEntity b = new TestEntity(2, new Vector3f(2, 0, 0), new Quaternion());
+        step(a, b);
+        int sent = packets;
+
+        // a warp of a on a frame without physics calculation
+        a.location.set(5, 0, 0);
+        publisher.startFrame(null);
+        publisher.physicalEntityUpdated(a);
+        publisher.endFrame(null);
+
+        ReplicationDecoder decoder = decoders.get("client");
+        assertEquals(sent, packets);
+        assertEquals(2, decoder.size());
+        assertEquals(1, decoder.getTick());
+    }
+
+    @Test
+    public void sendsAnEntityOncePerTick() {
+        TestEntity a = new TestEntity(1, new Vector3f(1, 0, 0), new Quaternion());
+        TestEntity b = new TestEntity(2, new Vector3f(2, 0, 0), new Quaternion());
+
+        publisher.startFrame(null);
+        // the warp before the physics calculation is dropped
+        publisher.physicalEntityUpdated(a);
+        publisher.physicsStepped(null);
+        publisher.physicalEntityUpdated(a);
+        publisher.physicalEntityUpdated(b);
+        a.location.set(3, 0, 0);
+        publisher.physicalEntityUpdated(a);
+        publisher.endFrame(null);
+
+        ReplicationDecoder decoder = decoders.get("client");
+        assertEquals(2, decoder.size());
+        assertTransform(decoder, a);
+        assertTransform(decoder, b);
+    }
+
+    @Test
+    public void sendsTheFullStateToANewClient() {
+        TestEntity a = new TestEntity(1, new Vector3f(1, 0, 0), new Quaternion());
+        TestEntity b = new TestEntity(2, new Vector3f(2, 0, 0), new Quaternion());
+        step(a, b);
+        step(a, b);
+
+        addClient("late");
+        step(a, b);
+
+        ReplicationDecoder decoder = decoders.get("late");
+        assertEquals(3, decoder.getTick());
+        assertEquals(2, decoder.size());
+        assertTransform(decoder, a);
+        assertTransform(decoder, b);
+    }
+
+    private void addClient(String client) {
+        decoders.put(client, new ReplicationDecoder(PRECISION));
+        publisher.addClient(client);
+    }
+
+    private void step(TestEntity... entities) {
+        publisher.startFrame(null);
+        publisher.physicsStepped(null);
+        for (TestEntity entity : entities) {
+            publisher.physicalEntityUpdated(entity);
+        }
+        publisher.endFrame(null);
+    }
+
+    private static void assertTransform(ReplicationDecoder decoder, TestEntity entity) {
+        int index = decoder.indexOf(entity.entityId);
+        assertTrue(index >= 0, "Entity " + entity.entityId + " isn't replicated");
+        Vector3f location = decoder.getLocation(index, null);
+        assertEquals(entity.location.x, location.x, PRECISION);
+        assertEquals(entity.location.y, location.y, PRECISION);
+        assertEquals(entity.location.z, location.z, PRECISION);
+        Quaternion rotation = decoder.getRotation(index, null);
+        assertTrue(Math.abs(entity.rotation.dot(rotation)) > 0.999f, "Rotation " + rotation + " differs from " + entity.rotation);
+    }
+
+    private static class TestEntity implements PhysicalEntity<PhysicsCollisionObject> {
+
+        private final EntityId entityId;
+        private final Vector3f location;
+        private final Quaternion rotation;
+
+        private TestEntity(long id, Vector3f location, Quaternion rotation) {
+            this.entityId = new EntityId(id);
+            this.location = location;
+            this.rotation = rotation;
+        }
+
+        @Override
+        public EntityId getEntityId() {
+            return entityId;
+        }
+
+        @Override
+        public PhysicsCollisionObject getPhysicalObject() {
+            return null;
+        }
+
+        @Override
+        public Vector3f getLocation() {
+            return location;
+        }
+
+        @Override
+        public Quaternion getRotation() {
+            return rotation;
+        }
+
+        @Override
+        public PhysicalEntityDriver getPhysicalEntityDriver() {
+            return null;
+        }
+
+    }
+
+}